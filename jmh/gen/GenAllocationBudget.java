@@ -0,0 +1,116 @@
+package gen;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.sun.management.ThreadMXBean;
+
+//	Bytes alocados por frame emulado en el thread de emulacion, medidos con
+//	ThreadMXBean.getThreadAllocatedBytes. Cualquier alocacion en el loop (68k, GenBus, render del VDP,
+//	Z80) termina en pausas del GC que rompen el ritmo de los frames, asi que el objetivo es 0.
+//	Corre escenarios sinteticos (sin ROM) y opcionalmente ROMs, y sale con 1 si algun frame se pasa
+//	del presupuesto. Los escenarios sinteticos corren en mvn -Pjmh verify, que falla si se pasan.
+//
+//	Uso: java -cp target/benchmarks.jar gen.GenAllocationBudget [-budget bytes] [-frames n] [rom...]
+public class GenAllocationBudget {
+
+	static final int WARMUP_FRAMES = 120;	//	carga de clases, JIT y buffers que se crean una sola vez
+
+	public static void main(String[] args) {
+		long budget = 0;
+		int frames = 300;
+		List<File> roms = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-budget")) {
+				budget = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-frames")) {
+				frames = Integer.parseInt(args[++i]);
+			} else {
+				roms.add(new File(args[i]));
+			}
+		}
+
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		boolean failed = false;
+		failed |= !check("68k+vdp", cpuScenario(), frames, budget, threads);
+		failed |= !check("68k+vdp+z80", z80Scenario(), frames, budget, threads);
+		for (File rom : roms) {
+			Genefusto emu = new Genefusto(false, true);
+			emu.loadRom(rom);
+			failed |= !check(rom.getName(), emu, frames, budget, threads);
+		}
+
+		System.exit(failed ? 1 : 0);
+	}
+
+	//	el 68k corre un loop con ALU, accesos a RAM, bus request y contador HV, con el display
+	//	prendido y sprites
+	static Genefusto cpuScenario() {
+		Genefusto emu = GenBenchmarkSetup.boot(
+				0x41F9, 0x00FF, 0x0000,		//	LEA $FF0000,A0
+				0xD081,						//	ADD.L D1,D0
+				0x20C0,						//	MOVE.L D0,(A0)+
+				0x2218,						//	MOVE.L (A0)+,D1
+				0x48D0, 0x00FF,				//	MOVEM.L D0-D7,(A0)
+				0x3039, 0x00A1, 0x1100,		//	MOVE.W $A11100,D0
+				0x3239, 0x00C0, 0x0008,		//	MOVE.W $C00008,D1
+				0x3439, 0x00C0, 0x0004);	//	MOVE.W $C00004,D2
+		GenBenchmarkSetup.fill(emu.vdp, new Random(1234));
+		return emu;
+	}
+
+	//	lo mismo con el Z80 corriendo un driver de mentira: ALU, LDIR y lecturas de la ventana del 68k
+	static Genefusto z80Scenario() {
+		Genefusto emu = cpuScenario();
+		int[] program = {
+				0x80, 0x91, 0xA2, 0xAB,		//	ADD A,B / SUB C / AND D / XOR E
+				0x21, 0x00, 0x10,			//	LD HL,1000
+				0x11, 0x00, 0x18,			//	LD DE,1800
+				0x01, 0x40, 0x00,			//	LD BC,0040
+				0xED, 0xB0,					//	LDIR
+				0x3A, 0x00, 0x80,			//	LD A,(8000)
+				0xC3, 0x00, 0x00			//	JP 0000
+		};
+		for (int i = 0; i < program.length; i++) {
+			emu.z80.memory[i] = program[i];
+		}
+		emu.runZ80 = true;
+		return emu;
+	}
+
+	static boolean check(String name, Genefusto emu, int frames, long budget, ThreadMXBean threads) {
+		long thread = Thread.currentThread().getId();
+
+		for (int i = 0; i < WARMUP_FRAMES; i++) {
+			emu.runFrame();
+		}
+
+		long total = 0;
+		long max = 0;
+		int over = 0;
+		for (int i = 0; i < frames; i++) {
+			long before = threads.getThreadAllocatedBytes(thread);
+			emu.runFrame();
+			long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+			total += allocated;
+			max = Math.max(max, allocated);
+			if (allocated > budget) {
+				over++;
+			}
+		}
+
+		emu.stopSound();
+
+		boolean pass = over == 0;
+		System.out.println(name + "\t" + (pass ? "PASS" : "FAIL") + "\tbytes/frame avg " + (total / frames)
+				+ " max " + max + "\tover budget (" + budget + "): " + over + "/" + frames);
+		return pass;
+	}
+
+}
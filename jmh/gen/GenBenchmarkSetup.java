@@ -0,0 +1,279 @@
+package gen;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+//	Lo que arman los benchmarks JMH (ver jmh/gen y el perfil jmh del pom.xml) sin ROM comercial: una
+//	ROM sintetica con un snippet del 68k, los programas del Z80, el VDP con VRAM al azar, y el YM2612
+//	y el PSG sonando. Tambien lo usa GenAllocationBudget, que corre en mvn -Pjmh verify.
+public class GenBenchmarkSetup {
+
+	//	emulador sin ventana con una ROM sintetica: vectores, header y el codigo en 0x200 repetido
+	//	en loop con un BRA.W al principio
+	static Genefusto boot(int... code) {
+		int[] rom = new int[0x20000];
+		writeLong(rom, 0, 0x00FFFE00);		//	SSP
+		writeLong(rom, 4, 0x00000200);		//	PC
+		byte[] title = "SEGA MEGA DRIVE ".getBytes();
+		for (int i = 0; i < title.length; i++) {
+			rom[0x100 + i] = title[i];
+		}
+
+		int pc = 0x200;
+		for (int word : code) {
+			writeWord(rom, pc, word);
+			pc += 2;
+		}
+		writeWord(rom, pc, 0x6000);			//	BRA.W 0x200
+		writeWord(rom, pc + 2, (0x200 - (pc + 2)) & 0xFFFF);
+
+		for (int i = 0x1000; i < 0x20000; i++) {	//	datos para los DMA y las lecturas de ROM
+			rom[i] = i & 0xFF;
+		}
+
+		Genefusto emu = new Genefusto(false, true);
+		emu.loadRom(rom);
+		return emu;
+	}
+
+	static void writeWord(int[] rom, int address, int data) {
+		rom[address] = (data >> 8) & 0xFF;
+		rom[address + 1] = data & 0xFF;
+	}
+
+	static void writeLong(int[] rom, int address, int data) {
+		writeWord(rom, address, data >>> 16);
+		writeWord(rom, address + 2, data & 0xFFFF);
+	}
+
+	//	snippets del 68k por nombre, GenCpuBenchmark los corre en loop sin VDP ni interrupciones
+	static final Map<String, int[]> CPU = new LinkedHashMap<>();
+
+	static {
+		CPU.put("alu", new int[] {
+				0xD081,				//	ADD.L D1,D0
+				0x9642,				//	SUB.W D2,D3
+				0xC081,				//	AND.L D1,D0
+				0x8283,				//	OR.L D3,D1
+				0xB141,				//	EOR.W D0,D1
+				0xE388,				//	LSL.L #1,D0
+				0x4480,				//	NEG.L D0
+				0xB081 });			//	CMP.L D1,D0
+
+		CPU.put("move.dn", new int[] { 0x2200, 0x2401, 0x3602, 0x1803 });	//	MOVE.L/W/B entre registros Dn
+		CPU.put("move.an", new int[] { 0x41F9, 0x00FF, 0x0000,		//	LEA $FF0000,A0
+				0x2210, 0x2210, 0x2210, 0x2081, 0x2081 });			//	MOVE.L (A0),D1 / MOVE.L D1,(A0)
+		CPU.put("move.postinc", new int[] { 0x41F9, 0x00FF, 0x0000,
+				0x2218, 0x2218, 0x2218, 0x2218, 0x20C1, 0x20C1 });	//	MOVE.L (A0)+,D1 / MOVE.L D1,(A0)+
+		CPU.put("move.predec", new int[] { 0x41F9, 0x00FF, 0x0100,
+				0x2220, 0x2220, 0x2220, 0x2220, 0x2101, 0x2101 });	//	MOVE.L -(A0),D1 / MOVE.L D1,-(A0)
+		CPU.put("move.disp", new int[] { 0x41F9, 0x00FF, 0x0000,
+				0x2228, 0x0010, 0x2228, 0x0020, 0x2141, 0x0030 });	//	MOVE.L d16(A0),D1 / MOVE.L D1,d16(A0)
+		CPU.put("move.index", new int[] { 0x41F9, 0x00FF, 0x0000, 0x7404,	//	MOVEQ #4,D2
+				0x2230, 0x2010, 0x2230, 0x2020, 0x2181, 0x2030 });	//	MOVE.L d8(A0,D2.W),D1 / MOVE.L D1,d8(A0,D2.W)
+		CPU.put("move.abs", new int[] { 0x2239, 0x00FF, 0x0000, 0x23C1, 0x00FF, 0x0004,	//	MOVE.L abs.L,D1 / MOVE.L D1,abs.L
+				0x3238, 0x8000, 0x31C1, 0x8002 });					//	MOVE.W abs.W,D1 / MOVE.W D1,abs.W
+		CPU.put("move.imm", new int[] { 0x223C, 0x1234, 0x5678, 0x323C, 0x1234, 0x7001 });	//	MOVE.L #,D1 / MOVE.W #,D1 / MOVEQ
+		CPU.put("move.pcrel", new int[] { 0x223A, 0x0E00, 0x323A, 0x0E00 });	//	MOVE.L/W d16(PC),D1
+
+		CPU.put("movem", new int[] { 0x41F9, 0x00FF, 0x0000,
+				0x48D0, 0x00FF,										//	MOVEM.L D0-D7,(A0)
+				0x4CD0, 0x00FF });									//	MOVEM.L (A0),D0-D7
+
+		CPU.put("branch.dbra", new int[] { 0x7010,					//	MOVEQ #16,D0
+				0x51C8, 0xFFFE });									//	DBRA D0,*
+		CPU.put("branch.bcc", new int[] { 0x7000,					//	MOVEQ #0,D0
+				0x6702,												//	BEQ.S +2 (salta)
+				0x4E71,												//	NOP
+				0x6602,												//	BNE.S +2 (no salta)
+				0x4E71,												//	NOP
+				0x4A80 });											//	TST.L D0
+	}
+
+	//	programas del Z80 por nombre, en su RAM desde 0000
+	static final Map<String, int[]> Z80 = new LinkedHashMap<>();
+
+	static {
+		Z80.put("alu", new int[] {
+				0x80,				//	ADD A,B
+				0x91,				//	SUB C
+				0xA2,				//	AND D
+				0xAB,				//	XOR E
+				0xB4,				//	OR H
+				0xBD,				//	CP L
+				0x3C,				//	INC A
+				0x05,				//	DEC B
+				0x8F,				//	ADC A,A
+				0x9A,				//	SBC A,D
+				0xC3, 0x00, 0x00 });	//	JP 0000
+
+		Z80.put("ram", new int[] {
+				0x21, 0x00, 0x10,	//	LD HL,1000
+				0x7E,				//	LD A,(HL)
+				0x77,				//	LD (HL),A
+				0x23,				//	INC HL
+				0x3A, 0x00, 0x11,	//	LD A,(1100)
+				0x32, 0x00, 0x11,	//	LD (1100),A
+				0xC3, 0x00, 0x00 });	//	JP 0000
+
+		Z80.put("bank", new int[] {
+				0x21, 0x00, 0x80,	//	LD HL,8000 (ventana del 68k, banco 0)
+				0x7E,				//	LD A,(HL)
+				0x23,				//	INC HL
+				0x7E,				//	LD A,(HL)
+				0x23,				//	INC HL
+				0x7E,				//	LD A,(HL)
+				0x23,				//	INC HL
+				0xC3, 0x00, 0x00 });	//	JP 0000
+
+		Z80.put("ldir", new int[] {
+				0x21, 0x00, 0x10,	//	LD HL,1000
+				0x11, 0x00, 0x18,	//	LD DE,1800
+				0x01, 0x00, 0x01,	//	LD BC,0100
+				0xED, 0xB0,			//	LDIR
+				0xC3, 0x00, 0x00 });	//	JP 0000
+	}
+
+	static GenZ80 z80(String program) {
+		GenZ80 z80 = boot(0x4E71).z80;
+		int[] code = Z80.get(program);
+		for (int i = 0; i < code.length; i++) {
+			z80.memory[i] = code[i];
+		}
+		return z80;
+	}
+
+	//	modos de scroll (registro 0x0B) de los benchmarks de planos
+	static final Map<String, Integer> SCROLL = new LinkedHashMap<>();
+
+	static {
+		SCROLL.put("full", 0x00);
+		SCROLL.put("cell", 0x02);
+		SCROLL.put("line", 0x03);
+		SCROLL.put("vcell", 0x04);
+	}
+
+	//	VDP con el frame sintetico de fill, la tabla de hscroll y la VSRAM llenas
+	static GenVdp vdp() {
+		GenVdp vdp = boot(0x4E71).vdp;
+		fill(vdp, new Random(1234));
+		for (int address = 0xFC00; address < 0x10000; address += 2) {
+			writeVram(vdp, address, address * 3);
+		}
+		for (int address = 0; address < 0x50; address += 2) {
+			writeVsram(vdp, address, address * 5);
+		}
+		vdp.assignPalette(0, 224);
+		return vdp;
+	}
+
+	static void dmaLength(GenVdp vdp, int length) {
+		writeRegister(vdp, 0x13, length & 0xFF);
+		writeRegister(vdp, 0x14, (length >> 8) & 0xFF);
+	}
+
+	static void finishDma(GenVdp vdp) {
+		while (vdp.dma == 1) {
+			vdp.runDma();
+		}
+	}
+
+	//	frame sintetico: VRAM al azar, 80 sprites, H40, window arriba y la CRAM al azar
+	static void fill(GenVdp vdp, Random random) {
+		writeRegister(vdp, 0x01, 0x44);		//	display on
+		writeRegister(vdp, 0x02, 0x30);		//	plano A en C000
+		writeRegister(vdp, 0x03, 0x2C);		//	window en B000
+		writeRegister(vdp, 0x04, 0x07);		//	plano B en E000
+		writeRegister(vdp, 0x05, 0x6C);		//	SAT en D800
+		writeRegister(vdp, 0x0C, 0x81);		//	H40
+		writeRegister(vdp, 0x0D, 0x3F);		//	hscroll en FC00
+		writeRegister(vdp, 0x0F, 0x02);
+		writeRegister(vdp, 0x10, 0x01);		//	planos de 64x32
+		writeRegister(vdp, 0x12, 0x04);		//	4 celdas de window arriba
+
+		for (int address = 0; address < 0xD800; address += 2) {	//	patrones y tablas de nombres
+			writeVram(vdp, address, random.nextInt(0x10000));
+		}
+		for (int i = 0; i < 80; i++) {
+			int y = 128 + random.nextInt(240);
+			int x = 128 + random.nextInt(336);
+			int size = random.nextInt(16);
+			int link = i == 79 ? 0 : i + 1;
+			int attr = (random.nextInt(0x10000) & 0xF800) | random.nextInt(0x600);	//	patrones lejos del final de la VRAM
+
+			int base = 0xD800 + (i * 8);
+			writeVram(vdp, base, y);
+			writeVram(vdp, base + 2, (size << 8) | link);
+			writeVram(vdp, base + 4, attr);
+			writeVram(vdp, base + 6, x);
+		}
+		for (int address = 0; address < 0x80; address += 2) {
+			writeCram(vdp, address, random.nextInt(0x1000) & 0xEEE);
+		}
+
+		vdp.evaluateSprites();
+	}
+
+	static void writeRegister(GenVdp vdp, int reg, int data) {
+		vdp.writeControlPort(0x8000 | (reg << 8) | data);
+	}
+
+	static void writeVram(GenVdp vdp, int address, int data) {
+		vdp.writeControlPort(0x4000 | (address & 0x3FFF));
+		vdp.writeControlPort((address >> 14) & 0x3);
+		vdp.writeDataPort(data, Size.WORD);
+	}
+
+	static void writeCram(GenVdp vdp, int address, int data) {
+		vdp.writeControlPort(0xC000 | address);
+		vdp.writeControlPort(0x0);
+		vdp.writeDataPort(data, Size.WORD);
+	}
+
+	static void writeVsram(GenVdp vdp, int address, int data) {
+		vdp.writeControlPort(0x4000 | address);
+		vdp.writeControlPort(0x10);
+		vdp.writeDataPort(data, Size.WORD);
+	}
+
+	//	los 6 canales sonando, cada uno con otro algoritmo, y el LFO prendido
+	static GenYm2612 ym() {
+		GenYm2612 ym = new GenYm2612();
+		ym.writeRegister(0, 0x22, 0x0B);
+		for (int ch = 0; ch < 6; ch++) {
+			int part = ch / 3;
+			int c = ch % 3;
+			for (int op = 0; op < 4; op++) {
+				int slot = c + (op * 4);
+				ym.writeRegister(part, 0x30 + slot, 0x01 + op);			//	MUL
+				ym.writeRegister(part, 0x40 + slot, op == 3 ? 0x00 : 0x20);	//	TL
+				ym.writeRegister(part, 0x50 + slot, 0x1F);				//	AR
+				ym.writeRegister(part, 0x60 + slot, 0x85);				//	AM, D1R
+				ym.writeRegister(part, 0x70 + slot, 0x02);				//	D2R
+				ym.writeRegister(part, 0x80 + slot, 0x2F);				//	SL, RR
+			}
+			ym.writeRegister(part, 0xA4 + c, 0x22);
+			ym.writeRegister(part, 0xA0 + c, 0x69 + (ch * 16));
+			ym.writeRegister(part, 0xB0 + c, (ch + 1) & 7 | 0x30);		//	algoritmo y feedback
+			ym.writeRegister(part, 0xB4 + c, 0xC0 | 0x33);				//	L + R, AMS y PMS
+			ym.writeRegister(0, 0x28, 0xF0 | (part << 2) | c);
+		}
+		return ym;
+	}
+
+	//	los 3 tonos en distintas frecuencias, uno agudo, y ruido blanco
+	static GenPsg psg() {
+		GenPsg psg = new GenPsg();
+		int[] tones = { 0x0FE, 0x17F, 0x00A };
+		for (int c = 0; c < 3; c++) {
+			psg.write(0x80 | (c << 5) | (tones[c] & 0x0F));
+			psg.write(tones[c] >> 4);
+			psg.write(0x90 | (c << 5) | 0x02);
+		}
+		psg.write(0xE4);
+		psg.write(0xF4);
+		return psg;
+	}
+
+}
@@ -0,0 +1,123 @@
+package gen;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//	Accesos por segundo de GenBus.read/write a cada region, 256 por invocacion
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenBusBenchmark {
+
+	GenBus bus;
+
+	@Setup
+	public void setup() {
+		Genefusto emu = GenBenchmarkSetup.boot(0x4E71);
+		bus = emu.bus;
+		GenBenchmarkSetup.writeRegister(emu.vdp, 0x0F, 0x02);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(256)
+	public long readRom() {
+		long sum = 0;
+		for (int i = 0; i < 512; i += 2) {
+			sum += bus.read(0x1000 + i, Size.WORD);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(256)
+	public long readRam() {
+		long sum = 0;
+		for (int i = 0; i < 512; i += 2) {
+			sum += bus.read(0xFF0000 + i, Size.WORD);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(256)
+	public void writeRam() {
+		for (int i = 0; i < 512; i += 2) {
+			bus.write(0xFF0000 + i, i, Size.WORD);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(256)
+	public long readZ80() {
+		long sum = 0;
+		for (int i = 0; i < 256; i++) {
+			sum += bus.read(0xA00000 + i, Size.BYTE);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(256)
+	public long readIo() {
+		long sum = 0;
+		for (int i = 0; i < 256; i++) {
+			sum += bus.read(0xA10003, Size.BYTE);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(256)
+	public long readBusreq() {
+		long sum = 0;
+		for (int i = 0; i < 256; i++) {
+			sum += bus.read(0xA11100, Size.WORD);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(256)
+	public long readVdpControl() {
+		long sum = 0;
+		for (int i = 0; i < 256; i++) {
+			sum += bus.read(0xC00004, Size.WORD);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(256)
+	public long readHvCounter() {
+		long sum = 0;
+		for (int i = 0; i < 256; i++) {
+			sum += bus.read(0xC00008, Size.WORD);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(256)
+	public void writeVdpData() {
+		bus.write(0xC00004, 0x4000, Size.WORD);		//	VRAM write en 0x0000
+		bus.write(0xC00004, 0x0000, Size.WORD);
+		for (int i = 0; i < 256; i++) {
+			bus.write(0xC00000, i, Size.WORD);
+		}
+	}
+
+}
@@ -0,0 +1,48 @@
+package gen;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//	Instrucciones del 68k por segundo sobre los snippets de GenBenchmarkSetup.CPU, en loop sin VDP ni
+//	interrupciones
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenCpuBenchmark {
+
+	@Param({ "alu", "move.dn", "move.an", "move.postinc", "move.predec", "move.disp", "move.index",
+			"move.abs", "move.imm", "move.pcrel", "movem", "branch.dbra", "branch.bcc" })
+	String snippet;
+
+	Gen68 cpu;
+
+	@Setup
+	public void setup() {
+		cpu = GenBenchmarkSetup.boot(GenBenchmarkSetup.CPU.get(snippet)).cpu;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(1000)
+	public void instructions() {
+		Gen68 c = cpu;
+		for (int i = 0; i < 1000; i++) {
+			c.runInstruction();
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+package gen;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//	Bytes por segundo de los tres tipos de DMA del VDP, cada invocacion hace uno entero
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenDmaBenchmark {
+
+	GenVdp vdp;
+
+	@Setup
+	public void setup() {
+		vdp = GenBenchmarkSetup.boot(0x4E71).vdp;
+		GenBenchmarkSetup.writeRegister(vdp, 0x01, 0x54);		//	display y DMA
+		GenBenchmarkSetup.writeRegister(vdp, 0x0F, 0x02);
+	}
+
+	//	68k -> VRAM, 8 KB desde la ROM en 0x1000
+	@Benchmark
+	@OperationsPerInvocation(0x2000)
+	public void memory() {
+		GenBenchmarkSetup.dmaLength(vdp, 0x1000);
+		GenBenchmarkSetup.writeRegister(vdp, 0x15, 0x00);
+		GenBenchmarkSetup.writeRegister(vdp, 0x16, 0x08);
+		GenBenchmarkSetup.writeRegister(vdp, 0x17, 0x00);
+		vdp.writeControlPort(0x4000);
+		vdp.writeControlPort(0x0080);
+		GenBenchmarkSetup.finishDma(vdp);
+	}
+
+	//	fill de 32 KB
+	@Benchmark
+	@OperationsPerInvocation(0x8000)
+	public void fill() {
+		GenBenchmarkSetup.dmaLength(vdp, 0x8000);
+		GenBenchmarkSetup.writeRegister(vdp, 0x17, 0x80);
+		vdp.writeControlPort(0x4000);
+		vdp.writeControlPort(0x0080);
+		vdp.writeDataPort(0x1234, Size.WORD);
+		GenBenchmarkSetup.finishDma(vdp);
+	}
+
+	//	copy de 16 KB dentro de la VRAM
+	@Benchmark
+	@OperationsPerInvocation(0x4000)
+	public void copy() {
+		GenBenchmarkSetup.writeRegister(vdp, 0x0F, 0x01);
+		GenBenchmarkSetup.dmaLength(vdp, 0x4000);
+		GenBenchmarkSetup.writeRegister(vdp, 0x15, 0x00);
+		GenBenchmarkSetup.writeRegister(vdp, 0x16, 0x00);
+		GenBenchmarkSetup.writeRegister(vdp, 0x17, 0xC0);
+		vdp.writeControlPort(0x4000);
+		vdp.writeControlPort(0x00C1);		//	destino 0x4000, codigo de copy (CD5 | CD4)
+		GenBenchmarkSetup.finishDma(vdp);
+		GenBenchmarkSetup.writeRegister(vdp, 0x0F, 0x02);
+	}
+
+}
@@ -0,0 +1,72 @@
+package gen;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//	Lineas por segundo del render de un frame capturado por GenRenderPipeline, en serie y en bandas
+//	con 2, 4 y 8 threads. El frame es el sintetico de GenBenchmarkSetup.fill con 8 segmentos de
+//	scroll distinto, como si el juego cambiara el scroll en medio de la pantalla.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenRenderBenchmark {
+
+	static final int LINES = 0xE0;
+	static final int SEGMENTS = 8;
+
+	@Param({ "1", "2", "4", "8" })
+	int threads;
+
+	GenRenderPipeline pipeline;
+	GenRenderPipeline.Frame frame;
+
+	@Setup
+	public void setup() {
+		GenVdp vdp = new GenVdp(null);
+		pipeline = new GenRenderPipeline(vdp);
+		frame = pipeline.current;
+
+		GenBenchmarkSetup.fill(vdp, new Random(1234));
+		for (int i = 0; i < SEGMENTS; i++) {
+			GenBenchmarkSetup.writeVsram(vdp, 0, i * 3);
+			GenBenchmarkSetup.writeVsram(vdp, 2, i * 5);
+			GenBenchmarkSetup.writeVram(vdp, 0xFC00, i * 7);	//	hscroll de plano A, modo full screen
+			pipeline.vramDirty = true;		//	el VDP no tiene el pipeline, no se entera solo
+			pipeline.recordSegment((LINES * i) / SEGMENTS, (LINES * (i + 1)) / SEGMENTS);
+		}
+		pipeline.captureSprites(frame);
+
+		pipeline.parallel = threads > 1 ? new GenParallelRenderer(null, threads) : null;
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (pipeline.parallel != null) {
+			pipeline.parallel.shutdown();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void drawFrame() {
+		pipeline.drawFrame(frame);
+	}
+
+}
@@ -0,0 +1,52 @@
+package gen;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//	Frames de audio por segundo: cada invocacion genera un frame (RATE / 60 muestras) del YM2612 o
+//	del PSG, con los chips armados en GenBenchmarkSetup
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenSoundBenchmark {
+
+	GenYm2612 ym;
+	int[] ymBuffer;
+
+	GenPsg psg;
+	int[] psgBuffer;
+
+	@Setup
+	public void setup() {
+		ym = GenBenchmarkSetup.ym();
+		ymBuffer = new int[(GenYm2612.RATE / 60) * 2];
+		psg = GenBenchmarkSetup.psg();
+		psgBuffer = new int[GenPsg.RATE / 60];
+	}
+
+	@Benchmark
+	public int ym2612() {
+		ym.render(ymBuffer, 0, GenYm2612.RATE / 60);
+		return ymBuffer[0];
+	}
+
+	@Benchmark
+	public int psg() {
+		psg.render(psgBuffer, 0, GenPsg.RATE / 60);
+		return psgBuffer[0];
+	}
+
+}
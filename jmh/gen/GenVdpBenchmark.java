@@ -0,0 +1,98 @@
+package gen;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//	Lineas por segundo del render de cada capa del VDP (las 224 por invocacion), los planos con cada
+//	modo de scroll, y compaginateImage
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenVdpBenchmark {
+
+	GenVdp vdp;
+
+	@Setup
+	public void setup() {
+		vdp = GenBenchmarkSetup.vdp();
+	}
+
+	//	solo los planos dependen del modo de scroll, las otras capas corren una vez
+	@State(Scope.Thread)
+	public static class Scrolled {
+		@Param({ "full", "cell", "line", "vcell" })
+		String scroll;
+
+		GenVdp vdp;
+
+		@Setup
+		public void setup() {
+			vdp = GenBenchmarkSetup.vdp();
+			vdp.registers[0x0B] = GenBenchmarkSetup.SCROLL.get(scroll);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(224)
+	public void back() {
+		for (int line = 0; line < 224; line++) {
+			vdp.renderBack(line);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(224)
+	public void planeA(Scrolled state) {
+		GenVdp v = state.vdp;
+		for (int line = 0; line < 224; line++) {
+			v.renderPlaneA(line);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(224)
+	public void planeB(Scrolled state) {
+		GenVdp v = state.vdp;
+		for (int line = 0; line < 224; line++) {
+			v.renderPlaneB(line);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(224)
+	public void window() {
+		for (int line = 0; line < 224; line++) {
+			vdp.renderWindow(line);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(224)
+	public void sprites() {
+		for (int line = 0; line < 224; line++) {
+			vdp.renderSprites(line);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(224)
+	public void compaginate() {
+		vdp.compaginateImage();
+	}
+
+}
@@ -0,0 +1,63 @@
+package gen;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//	El Z80 corriendo los programas de GenBenchmarkSetup.Z80 en su RAM, con el mismo fetch que
+//	Genefusto.runZ80Until: instrucciones por segundo, y ciclos para las de bloque, que hacen muchas
+//	vueltas en una instruccion
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenZ80Benchmark {
+
+	@Param({ "alu", "ram", "bank", "ldir" })
+	String program;
+
+	GenZ80 z80;
+
+	@Setup
+	public void setup() {
+		z80 = GenBenchmarkSetup.z80(program);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(1000)
+	public void instructions() {
+		GenZ80 z = z80;
+		for (int i = 0; i < 1000; i++) {
+			int opcode = z.readMemory(z.PC);
+			z.PC = (z.PC + 1) & 0xFFFF;
+			z.executeInstruction(opcode);
+		}
+	}
+
+	//	en miles de ciclos del Z80
+	@Benchmark
+	@OperationsPerInvocation(100)
+	public void kcycles() {
+		GenZ80 z = z80;
+		int cycles = 0;
+		while (cycles < 100_000) {
+			int opcode = z.readMemory(z.PC);
+			z.PC = (z.PC + 1) & 0xFFFF;
+			cycles += z.executeInstruction(opcode);
+		}
+	}
+
+}
@@ -80,22 +80,22 @@ public class Gen68 {
 	public int runInstruction() {
 		long opcode = bus.read(PC, Size.WORD);
 		
-		sb.append(pad4((int) PC) + " - Opcode: " + pad4((int) opcode) + " - SR: " + pad4(SR) + " - SSP: "
-				+ pad4((int) SSP) + " - USP: " + pad4((int) USP) + "\r\n");
-		for (int j = 0; j < 8; j++) {
-			sb.append(" A" + j + ":" + Integer.toHexString((int) A[j]));
-		}
-		sb.append("\r\n");
-		for (int j = 0; j < 8; j++) {
-			sb.append(" D" + j + ":" + Integer.toHexString((int) D[j]));
-		}
-		sb.append("\r\n");
-		if (print) {
+		if (print) {	//	el log arma strings, solo si se va a imprimir
+			sb.append(pad4((int) PC) + " - Opcode: " + pad4((int) opcode) + " - SR: " + pad4(SR) + " - SSP: "
+					+ pad4((int) SSP) + " - USP: " + pad4((int) USP) + "\r\n");
+			for (int j = 0; j < 8; j++) {
+				sb.append(" A" + j + ":" + Integer.toHexString((int) A[j]));
+			}
+			sb.append("\r\n");
+			for (int j = 0; j < 8; j++) {
+				sb.append(" D" + j + ":" + Integer.toHexString((int) D[j]));
+			}
+			sb.append("\r\n");
 			System.out.println(sb.toString());
+			
+			sb.setLength(0);
 		}
 		
-		sb.setLength(0);
-		
 		cycles = 0;
 		
 //		print = true;
@@ -331,9 +331,16 @@ public class Gen68 {
 		return resolveAddressingMode(PC + 2, size, mode, register);
 	}
 	
+	//	una instruccion usa a lo sumo origen y destino, se reciclan en ronda para no crear uno por operando
+	Operation[] operations = { new Operation(), new Operation(), new Operation(), new Operation() };
+	int nextOperation;
+	
 	public Operation resolveAddressingMode(long offset, Size size, int mode, int register) {
 		AddressingMode addressing = getAddressingMode(mode, register);
-		Operation oper = new Operation();
+		Operation oper = operations[nextOperation];
+		nextOperation = (nextOperation + 1) & 0x3;
+		oper.setAddress(0);
+		oper.setData(0);
 		oper.setRegister(register);
 		oper.setAddressingMode(addressing);
 		
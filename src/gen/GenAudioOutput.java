@@ -0,0 +1,173 @@
+package gen;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
+
+//	Salida de audio: mezcla el FM (estereo, ~53 kHz) y el PSG (mono, ~224 kHz), los pasa a 48 kHz con
+//	GenResampler y los escribe en un SourceDataLine, o en un WAV cuando se corre sin ventana.
+//	Corre en el thread de audio (es el GenSound.Output), asi que puede quedarse esperando en
+//	line.write: eso es lo que marca el ritmo del audio, y la emulacion se frena mirando cuantos
+//	frames le lleva de ventaja (Genefusto.endLine).
+//	Control dinamico de frecuencia: el reloj emulado y el de la placa de sonido nunca coinciden del
+//	todo, asi que en cada bloque se corrige el paso del resampler hasta un 0.5% segun que tan lleno
+//	esta el buffer de la linea respecto de la mitad. Lleno de mas consume mas rapido la entrada
+//	(menos muestras de salida), vacio de mas genera mas. El cambio de tono es inaudible y no hay
+//	cortes ni deriva.
+public class GenAudioOutput implements GenSound.Output {
+
+	static final int RATE = 48000;
+	static final double MAX_DELTA = 0.005;
+	static final int LINE_BUFFER = (RATE / 1000) * 60 * 4;	//	60 ms, estereo 16 bits
+
+	static final float PSG_GAIN = 0.5f;
+	static final float DC_POLE = 0.999f;		//	el PSG es unipolar, se le saca la continua
+
+	SourceDataLine line;
+	private OutputStream wav;
+	private File wavFile;
+	private long wavBytes;
+
+	private final GenResampler fm = new GenResampler((double) GenSound.MASTER_CLOCK / GenSound.FM_DIVIDER, RATE, 2, 8, GenSound.FM_BUFFER);
+	private final GenResampler psg = new GenResampler((double) GenSound.MASTER_CLOCK / GenSound.PSG_DIVIDER, RATE, 1, 4, GenSound.PSG_BUFFER);
+
+	private float psgIn;
+	private float psgOut;
+
+	private byte[] bytes = new byte[(fm.output.length / 2) * 4];
+
+	double adjust = 1;
+
+	private GenAudioOutput() {
+	}
+
+	static GenAudioOutput openLine() {
+		try {
+			AudioFormat format = new AudioFormat(RATE, 16, 2, true, false);
+			SourceDataLine line = AudioSystem.getSourceDataLine(format);
+			line.open(format, LINE_BUFFER);
+			line.start();
+			GenAudioOutput out = new GenAudioOutput();
+			out.line = line;
+			return out;
+		} catch (Exception e) {
+			System.out.println("Audio not available: " + e);
+			return null;
+		}
+	}
+
+	static GenAudioOutput openWav(File file) {
+		try {
+			GenAudioOutput out = new GenAudioOutput();
+			out.wavFile = file;
+			out.wav = new BufferedOutputStream(new FileOutputStream(file));
+			out.wav.write(new byte[44]);		//	el header se escribe al cerrar, con los tamaos
+			return out;
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot write " + file, e);
+		}
+	}
+
+	@Override
+	public void samples(int[] fmSamples, int fmCount, int[] psgSamples, int psgCount) {
+		if (line != null) {
+			double fill = (double) (line.getBufferSize() - line.available()) / line.getBufferSize();
+			adjust = 1 + (MAX_DELTA * ((2 * fill) - 1));
+		}
+		fm.write(fmSamples, fmCount, adjust);
+		psg.write(psgSamples, psgCount, adjust);
+
+		int frames = Math.min(fm.outputCount, psg.outputCount);
+		int[] left = fm.output;
+		int[] mono = psg.output;
+		byte[] b = bytes;
+		for (int i = 0; i < frames; i++) {
+			float x = mono[i];
+			psgOut = (x - psgIn) + (DC_POLE * psgOut);
+			psgIn = x;
+			int p = (int) (psgOut * PSG_GAIN);
+
+			int l = clip(left[i * 2] + p);
+			int r = clip(left[(i * 2) + 1] + p);
+			b[i * 4] = (byte) l;
+			b[(i * 4) + 1] = (byte) (l >> 8);
+			b[(i * 4) + 2] = (byte) r;
+			b[(i * 4) + 3] = (byte) (r >> 8);
+		}
+		fm.consume(frames);
+		psg.consume(frames);
+
+		if (line != null) {
+			line.write(b, 0, frames * 4);
+		} else {
+			try {
+				wav.write(b, 0, frames * 4);
+				wavBytes += frames * 4;
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot write " + wavFile, e);
+			}
+		}
+	}
+
+	private static int clip(int v) {
+		return v > Short.MAX_VALUE ? Short.MAX_VALUE : (v < Short.MIN_VALUE ? Short.MIN_VALUE : v);
+	}
+
+	void close() {
+		if (line != null) {
+			line.close();
+			return;
+		}
+		try {
+			wav.close();
+			try (RandomAccessFile file = new RandomAccessFile(wavFile, "rw")) {
+				file.write(wavHeader(wavBytes));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot write " + wavFile, e);
+		}
+	}
+
+	//	PCM 16 bits estereo, little endian
+	private static byte[] wavHeader(long dataBytes) {
+		byte[] h = new byte[44];
+		putString(h, 0, "RIFF");
+		putInt(h, 4, (int) (dataBytes + 36));
+		putString(h, 8, "WAVE");
+		putString(h, 12, "fmt ");
+		putInt(h, 16, 16);
+		putShort(h, 20, 1);
+		putShort(h, 22, 2);
+		putInt(h, 24, RATE);
+		putInt(h, 28, RATE * 4);
+		putShort(h, 32, 4);
+		putShort(h, 34, 16);
+		putString(h, 36, "data");
+		putInt(h, 40, (int) dataBytes);
+		return h;
+	}
+
+	private static void putString(byte[] b, int offset, String s) {
+		for (int i = 0; i < 4; i++) {
+			b[offset + i] = (byte) s.charAt(i);
+		}
+	}
+
+	private static void putInt(byte[] b, int offset, int v) {
+		putShort(b, offset, v);
+		putShort(b, offset + 2, v >> 16);
+	}
+
+	private static void putShort(byte[] b, int offset, int v) {
+		b[offset] = (byte) v;
+		b[offset + 1] = (byte) (v >> 8);
+	}
+
+}
@@ -22,6 +22,10 @@ public class GenBus {
 	
 	int[] banks = new int[] {0, 1, 2, 3, 4, 5, 6, 7};
 	
+	GenStats stats;
+	
+	Random random = new Random();	//	bus request y contador H, hasta que se emulen bien
+	
 	GenBus(Genefusto emu, GenMemory memory, GenVdp vdp, GenZ80 z80, GenJoypad joypad, Gen68 cpu) {
 		this.emu = emu;
 		this.memory = memory;
@@ -42,6 +46,8 @@ public class GenBus {
 		address = address & 0xFF_FFFF;	// el memory map llega hasta ahi
 		long data;
 		
+		stats.busReads[GenStats.region(address)]++;
+		
 		if (ssf2Mapper && address >= 0x080000 && address <= 0x3FFFFF) {
 			if (address >= 0x080000 && address <= 0x0FFFFF) {
 				address = (banks[1] * 0x80000) + (address - 0x80000);
@@ -139,6 +145,7 @@ public class GenBus {
 			return data;
 			
 		} else if (address >= 0xA00000 && address <= 0xA0FFFF) {	//	Z80 addressing space
+			emu.syncZ80();
 			return z80.readMemory((int) (address - 0xA00000));
 			
 		} else if (address == 0xA10000 || address == 0xA10001) {	//	Version register (read-only word-long)
@@ -181,7 +188,7 @@ public class GenBus {
 			
 		} else if (address == 0xA11100 || address == 0xA11101) {	//	Z80 bus request	
 //			return (z80.busRequested && !z80.reset) ? 0 : 1;
-			return new Random().nextBoolean() ? 1: 0;
+			return random.nextBoolean() ? 1: 0;
 //			return 0;	//	FIXME hacer esto bien
 		
 		} else if (address == 0xC00000 || address == 0xC00002) {	// VDP Data
@@ -217,7 +224,7 @@ public class GenBus {
 			
 		} else if (address == 0xC00008 || address == 0xC00009) {
 			int v = vdp.line;
-			int h = new Random().nextInt(256);
+			int h = random.nextInt(256);
 			if (size == Size.WORD) {
 				return (v << 8) | h;	//	VDP HV counter
 			} else if (size == Size.BYTE) {
@@ -253,6 +260,8 @@ public class GenBus {
 //	https://wiki.megadrive.org/index.php?title=IO_Registers
 	public void write(long address, long data, Size size) {
 		long addressL = (address & 0xFF_FFFF);
+		stats.busWrites[GenStats.region(addressL)]++;
+		
 		if (size == Size.BYTE) {
 			data = data & 0xFF;
 		} else if (size == Size.WORD) {
@@ -285,6 +294,8 @@ public class GenBus {
 			}
 			
 		} else if (addressL >= 0xA00000 && addressL <= 0xA0FFFF) {	//	Z80 addressing space
+			emu.syncZ80();
+			emu.wakeZ80();
 			int addr = (int) (address - 0xA00000);
 			if (size == Size.BYTE) {
 				z80.writeByte(addr, data);
@@ -325,10 +336,13 @@ public class GenBus {
 			System.out.println("expansion port serial control !!");
 			
 		} else if (addressL == 0xA11100 || addressL == 0xA11101) {	//	Z80 bus request
+			emu.syncZ80();		//	el Z80 corre hasta este momento y recien ahi se para o arranca
+			emu.wakeZ80();
 			//	To stop the Z80 and send a bus request, #$0100 must be written to $A11100.
 			if (data == 0x0100 || data == 0x1) {
 				z80.requestBus();
 				emu.runZ80 = false;
+				GenEvents.z80Bus("busreq", vdp.line);
 				
 			//	 #$0000 needs to be written to $A11100 to return the bus back to the Z80
 			} else if (data == 0x0000) {
@@ -336,9 +350,12 @@ public class GenBus {
 				if (!z80.reset) {
 					emu.runZ80 = true;
 				}
+				GenEvents.z80Bus("release", vdp.line);
 				
 			}
 		} else if (addressL == 0xA11200 || addressL == 0xA11201) {	//	Z80 bus reset
+			emu.syncZ80();
+			emu.wakeZ80();
 			//	if the Z80 is required to be reset (for example, to load a new program to it's memory)
 			//	this may be done by writing #$0000 to $A11200, but only when the Z80 bus is requested
 			if (data == 0x0000) {
@@ -348,6 +365,7 @@ public class GenBus {
 					z80.initialize();
 					emu.runZ80 = false;
 //				}
+				GenEvents.z80Bus("reset", vdp.line);
 				
 			//	After returning the bus after loading the new program to it's memory,
 			//	the Z80 may be let go from reset by writing #$0100 to $A11200.
@@ -360,6 +378,7 @@ public class GenBus {
 //					z80.initialize();
 					emu.runZ80 = true;
 				}
+				GenEvents.z80Bus("unreset", vdp.line);
 			}
 			
 		} else if (addressL == 0xA130F1) {	//	Sonic 3 will write to this register to enable and disable writing to its save game memory
@@ -373,37 +392,48 @@ public class GenBus {
 		} else if (addressL == 0xA130F3 && ssf2Mapper) {	//	0x080000 - 0x0FFFFF
 			data = data & 0x3F;	//	A page is specified with 6 bits (bits 7 and 6 are always 0) thus allowing a possible 64 pages (SSFII only has 10, though.)
 			banks[1] = (int) data;
+			GenEvents.bankSwitch("ssf2", 1, banks[1]);
 			
 		} else if (addressL == 0xA130F5 && ssf2Mapper) {	//	0x100000 - 0x17FFFF
 			data = data & 0x3F;
 			banks[2] = (int) data;
+			GenEvents.bankSwitch("ssf2", 2, banks[2]);
 			
 		} else if (addressL == 0xA130F7 && ssf2Mapper) {	//	0x180000 - 0x1FFFFF
 			data = data & 0x3F;
 			banks[3] = (int) data;
+			GenEvents.bankSwitch("ssf2", 3, banks[3]);
 			
 		} else if (addressL == 0xA130F9 && ssf2Mapper) {	//	0x200000 - 0x27FFFF
 			data = data & 0x3F;
 			banks[4] = (int) data;
+			GenEvents.bankSwitch("ssf2", 4, banks[4]);
 			
 		} else if (addressL == 0xA130FB && ssf2Mapper) {	//	0x280000 - 0x2FFFFF
 			data = data & 0x3F;
 			banks[5] = (int) data;
+			GenEvents.bankSwitch("ssf2", 5, banks[5]);
 			
 		} else if (addressL == 0xA130FD && ssf2Mapper) {	//	0x300000 - 0x37FFFF
 			data = data & 0x3F;
 			banks[6] = (int) data;
+			GenEvents.bankSwitch("ssf2", 6, banks[6]);
 			
 		} else if (addressL == 0xA130FF && ssf2Mapper) {	//	0x380000 - 0x3FFFFF
 			data = data & 0x3F;
 			banks[7] = (int) data;
+			GenEvents.bankSwitch("ssf2", 7, banks[7]);
 			
 		} else if (address == 0xA14000) {	//	VDP TMSS
 			System.out.println("TMSS: " + Integer.toHexString((int) data));
 			
 		} else if (addressL == 0xC00000 || addressL == 0xC00001
 				|| addressL == 0xC00002 || addressL == 0xC00003) {	// word / long word
-			vdp.writeDataPort((int) data, size);
+			if (size == Size.LONG && !vdp.vramFill) {
+				vdp.writeDataPortLong((int) data);
+			} else {
+				vdp.writeDataPort((int) data, size);
+			}
 			
 		} else if (addressL == 0xC00004 || addressL == 0xC00005
 				|| addressL == 0xC00006 || addressL == 0xC00007) {	// word / long word
@@ -416,9 +446,9 @@ public class GenBus {
 				vdp.writeControlPort(data & 0xFFFF);
 			}
 
-		} else if (addressL == 0xC00011) {	//	PSG output
-//			System.out.println("PSG Output");
-			// TODO implement audio		http://md.squee.co/PSG
+		} else if (addressL == 0xC00011) {	//	PSG output		http://md.squee.co/PSG
+			emu.syncZ80();		//	el PSG lo comparten: lo que el Z80 escribio antes va primero en la cola
+			emu.psgWrite((int) (data & 0xFF));
 			
 		} else if (addressL >= 0xFF0000) {
 			long addr = (addressL & 0xFFFFFF) - 0xFF0000;
@@ -522,6 +552,7 @@ public class GenBus {
 			vdp.vip = 0;
 			
 			vintPending = false;
+			GenEvents.interrupt(6, vdp.line);
 			
 			return;
 		}
@@ -533,7 +564,7 @@ public class GenBus {
 			int oldSR = cpu.SR;
 			long ssp = cpu.SSP;
 			
-			System.out.println("HINT ! Line: " + Integer.toHexString(vdp.line));
+//			System.out.println("HINT ! Line: " + Integer.toHexString(vdp.line));
 			
 			ssp--;
 			write(ssp, oldPC & 0xFF, Size.BYTE);
@@ -558,6 +589,7 @@ public class GenBus {
 			cpu.setALong(7, ssp);
 			
 			hintPending = false;
+			GenEvents.interrupt(4, vdp.line);
 		}
 	}
 
@@ -0,0 +1,183 @@
+package gen;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+
+//	Eventos de Java Flight Recorder: frames, DMA, interrupciones del 68k, bus request y reset del Z80
+//	y cambios de banco. Se ven en JDK Mission Control junto con el GC y los threads, asi se puede
+//	cruzar un frame lento con lo que estaba haciendo el juego.
+//	Sin una grabacion corriendo no se crea ningun evento: cada punto de emision solo lee el flag
+//	recording, que actualiza un listener del recorder.
+public class GenEvents {
+
+	static volatile boolean recording;
+
+	static {
+		try {
+			FlightRecorder.addListener(new FlightRecorderListener() {
+				@Override
+				public void recorderInitialized(FlightRecorder recorder) {
+					update(recorder);
+				}
+
+				@Override
+				public void recordingStateChanged(Recording changed) {
+					update(FlightRecorder.getFlightRecorder());
+				}
+			});
+		} catch (Throwable e) {		//	JVM sin JFR
+			System.out.println("JFR not available: " + e);
+		}
+	}
+
+	private static void update(FlightRecorder recorder) {
+		boolean running = false;
+		for (Recording r : recorder.getRecordings()) {
+			if (r.getState() == RecordingState.RUNNING) {
+				running = true;
+			}
+		}
+		recording = running;
+	}
+
+	@Name("gen.Frame")
+	@Label("Frame")
+	@Category({ "Genefusto", "VDP" })
+	@StackTrace(false)
+	static class FrameEvent extends Event {
+		@Label("Frame")
+		long frame;
+
+		@Label("Rendered")
+		boolean rendered;
+	}
+
+	@Name("gen.Dma")
+	@Label("DMA")
+	@Category({ "Genefusto", "VDP" })
+	static class DmaEvent extends Event {
+		@Label("Mode")
+		String mode;
+
+		@Label("Source")
+		int source;
+
+		@Label("Destination")
+		int destination;
+
+		@Label("Length")
+		int length;
+	}
+
+	@Name("gen.Interrupt")
+	@Label("68k Interrupt")
+	@Category({ "Genefusto", "68k" })
+	@StackTrace(false)
+	static class InterruptEvent extends Event {
+		@Label("Level")
+		int level;
+
+		@Label("Line")
+		int line;
+	}
+
+	@Name("gen.Z80Bus")
+	@Label("Z80 Bus")
+	@Category({ "Genefusto", "Z80" })
+	static class Z80BusEvent extends Event {
+		@Label("Action")
+		String action;
+
+		@Label("Line")
+		int line;
+	}
+
+	@Name("gen.BankSwitch")
+	@Label("Bank Switch")
+	@Category({ "Genefusto", "Mapper" })
+	static class BankSwitchEvent extends Event {
+		@Label("Mapper")
+		String mapper;
+
+		@Label("Slot")
+		int slot;
+
+		@Label("Bank")
+		int bank;
+	}
+
+	//	el evento del frame abarca desde la linea 0 hasta que vuelve a empezar la siguiente
+	static FrameEvent beginFrame(long frame) {
+		if (!recording) {
+			return null;
+		}
+		FrameEvent event = new FrameEvent();
+		event.frame = frame;
+		event.begin();
+		return event;
+	}
+
+	static void endFrame(FrameEvent event) {
+		if (event != null) {
+			event.commit();
+		}
+	}
+
+	static DmaEvent beginDma(String mode, int source, int destination, int length) {
+		if (!recording) {
+			return null;
+		}
+		DmaEvent event = new DmaEvent();
+		event.mode = mode;
+		event.source = source;
+		event.destination = destination;
+		event.length = length;
+		event.begin();
+		return event;
+	}
+
+	static void endDma(DmaEvent event) {
+		if (event != null) {
+			event.commit();
+		}
+	}
+
+	static void interrupt(int level, int line) {
+		if (!recording) {
+			return;
+		}
+		InterruptEvent event = new InterruptEvent();
+		event.level = level;
+		event.line = line;
+		event.commit();
+	}
+
+	static void z80Bus(String action, int line) {
+		if (!recording) {
+			return;
+		}
+		Z80BusEvent event = new Z80BusEvent();
+		event.action = action;
+		event.line = line;
+		event.commit();
+	}
+
+	static void bankSwitch(String mapper, int slot, int bank) {
+		if (!recording) {
+			return;
+		}
+		BankSwitchEvent event = new BankSwitchEvent();
+		event.mapper = mapper;
+		event.slot = slot;
+		event.bank = bank;
+		event.commit();
+	}
+
+}
@@ -0,0 +1,128 @@
+package gen;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+//	Render de un frame ya capturado (GenRenderPipeline.Frame) partido en bandas de lineas, cada banda
+//	en un thread del pool. Cada linea se dibuja solo con el estado de su segmento, asi que las bandas
+//	no dependen entre si.
+//	Cada worker es un GenVdp propio (registros, VRAM, SAT, etc. apuntando al segmento que esta
+//	dibujando, y sus variables de trabajo) y dibuja las capas (planeA, sprites...) en sus propios
+//	buffers: son [x][linea], asi que si las bandas compartieran los del destino escribirian todas en
+//	las mismas lineas de cache de cada columna. Solo el frame compaginado es el del VDP destino,
+//	que va por filas y cada banda escribe las suyas.
+public class GenParallelRenderer {
+
+	ForkJoinPool pool;
+	Band[] bands;
+
+	GenRenderPipeline.Frame frame;
+	GenVdp target;
+
+	public GenParallelRenderer(GenBus bus, int threads) {
+		pool = new ForkJoinPool(threads);
+
+		//	un par de bandas por thread para que el work stealing empareje las lineas con mas sprites
+		int count = threads == 1 ? 1 : threads * 2;
+		bands = new Band[count];
+		for (int i = 0; i < count; i++) {
+			bands[i] = new Band(this, new GenVdp(bus));
+		}
+	}
+
+	public int getThreads() {
+		return pool.getParallelism();
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	//	dibuja y compagina las lineas del frame en los buffers de target
+	void render(GenRenderPipeline.Frame frame, GenVdp target, int lines) {
+		this.frame = frame;
+		this.target = target;
+
+		int count = bands.length;
+		for (int i = 0; i < count; i++) {
+			Band band = bands[i];
+			band.from = (lines * i) / count;
+			band.to = (lines * (i + 1)) / count;
+			band.reinitialize();
+		}
+
+		root.reinitialize();
+		pool.invoke(root);
+
+		for (int i = 0; i < count; i++) {
+			GenVdp worker = bands[i].worker;
+			if (worker.scol == 1) {
+				target.scol = 1;
+				worker.scol = 0;
+			}
+		}
+
+		//	los registros finales quedan en target, como si se hubiera dibujado en serie
+		if (frame.segmentCount > 0) {
+			GenRenderPipeline.loadSegment(target, frame, frame.segments[frame.segmentCount - 1]);
+		}
+	}
+
+	private final RecursiveAction root = new RecursiveAction() {
+		@Override
+		protected void compute() {
+			ForkJoinTask.invokeAll(bands);
+		}
+	};
+
+	static final class Band extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final transient GenParallelRenderer renderer;
+		final transient GenVdp worker;
+		int from;
+		int to;
+
+		Band(GenParallelRenderer renderer, GenVdp worker) {
+			this.renderer = renderer;
+			this.worker = worker;
+		}
+
+		@Override
+		protected void compute() {
+			GenVdp w = worker;
+			GenRenderPipeline.Frame f = renderer.frame;
+
+			w.frame = renderer.target.frame;
+
+			w.spritesPerLine = f.spritesPerLine;
+			w.lastIndexes = f.lastIndexes;
+			w.lineOverflow = f.lineOverflow;
+			w.lastSpriteWidth = f.lastSpriteWidth;
+
+			GenRenderPipeline.Segment last = null;
+			for (int i = 0; i < f.segmentCount; i++) {
+				GenRenderPipeline.Segment segment = f.segments[i];
+				int first = Math.max(segment.fromLine, from);
+				int end = Math.min(segment.toLine, to);
+				if (first >= end) {
+					continue;
+				}
+				GenRenderPipeline.loadSegment(w, f, segment);
+				last = segment;
+
+				for (int line = first; line < end; line++) {
+					w.renderLine(line);
+				}
+			}
+
+			//	la compaginacion usa el modo (H32/H40) del final del frame, igual que en serie
+			if (f.segmentCount > 0 && last != f.segments[f.segmentCount - 1]) {
+				GenRenderPipeline.loadSegment(w, f, f.segments[f.segmentCount - 1]);
+			}
+			w.compaginateLines(from, to);
+		}
+	}
+
+}
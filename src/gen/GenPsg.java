@@ -0,0 +1,182 @@
+package gen;
+
+import java.util.Arrays;
+
+//	SN76489 (PSG): 3 canales de onda cuadrada y uno de ruido con el LFSR de Sega (16 bits, taps en
+//	los bits 0 y 3). Las muestras salen a la frecuencia nativa (reloj / 16, ~224 kHz), que es la
+//	resolucion de los contadores del chip, asi cada cambio de nivel cae justo en una muestra.
+//	No se recorre el chip clock por clock: por canal se calcula cuando es el proximo cambio de
+//	nivel, y cada cambio se agrega como un escalon de banda limitada (BLEP, la respuesta al escalon
+//	de un pasa bajos a 20 kHz) en un buffer de deltas que despues se integra de una pasada. Como la
+//	salida ya viene limitada en banda, bajarla a la frecuencia del dispositivo es barato.
+//	http://md.squee.co/PSG
+public class GenPsg {
+
+	static final int CLOCK = 3579545;		//	el del Z80 en NTSC
+	static final int RATE = CLOCK / 16;		//	muestras por segundo
+
+	static final int MAX_BATCH = 8192;
+
+	private static final int KERNEL = 64;
+	private static final int KERNEL_SHIFT = 15;
+	private static final int[] STEP = new int[KERNEL];	//	derivada del escalon de banda limitada, suma 1 << 15
+
+	//	atenuacion de 2 dB por paso, 15 es silencio
+	static final int[] VOLUME = new int[16];
+
+	static {
+		double cutoff = 20000.0 / RATE;
+		double[] h = new double[KERNEL];
+		double sum = 0;
+		for (int k = 0; k < KERNEL; k++) {
+			double x = k - ((KERNEL - 1) / 2.0);
+			double sinc = x == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+			double window = 0.42 - (0.5 * Math.cos((2 * Math.PI * k) / (KERNEL - 1)))
+					+ (0.08 * Math.cos((4 * Math.PI * k) / (KERNEL - 1)));
+			h[k] = sinc * window;
+			sum += h[k];
+		}
+		int total = 0;
+		for (int k = 0; k < KERNEL; k++) {
+			STEP[k] = (int) Math.round((h[k] / sum) * (1 << KERNEL_SHIFT));
+			total += STEP[k];
+		}
+		STEP[KERNEL / 2] += (1 << KERNEL_SHIFT) - total;	//	que el escalon llegue exacto al nivel
+
+		for (int i = 0; i < 15; i++) {
+			VOLUME[i] = (int) (4096 * Math.pow(10, (-2.0 * i) / 20));
+		}
+		VOLUME[15] = 0;
+	}
+
+	int[] tone = new int[3];			//	periodo de 10 bits
+	int[] attenuation = { 0xF, 0xF, 0xF, 0xF };
+	int noise;							//	bit 2 ruido blanco, bits 0-1 frecuencia (3 usa la del canal 3)
+	int lfsr = 0x8000;
+	int latch;							//	canal * 2 + tipo (1 es volumen)
+
+	int[] counter = new int[4];			//	muestras hasta el proximo cambio
+	int[] output = new int[4];			//	0 o 1
+	int[] amplitude = new int[4];		//	lo que suma hoy cada canal
+
+	private int[] deltas = new int[MAX_BATCH + KERNEL];
+	private int accumulator;
+
+	void reset() {
+		for (int c = 0; c < 4; c++) {
+			attenuation[c] = 0xF;
+			counter[c] = 1;
+			output[c] = 0;
+			amplitude[c] = 0;
+		}
+		for (int c = 0; c < 3; c++) {
+			tone[c] = 0;
+		}
+		noise = 0;
+		lfsr = 0x8000;
+		latch = 0;
+	}
+
+	//	byte de latch (bit 7 en 1: canal, tipo y 4 bits bajos) o de datos (6 bits altos del periodo)
+	void write(int data) {
+		if ((data & 0x80) != 0) {
+			latch = (data >> 4) & 7;
+			writeLow(data & 0x0F);
+		} else {
+			int channel = latch >> 1;
+			if ((latch & 1) == 0 && channel < 3) {
+				tone[channel] = (tone[channel] & 0x0F) | ((data & 0x3F) << 4);
+			} else {
+				writeLow(data & 0x0F);
+			}
+		}
+	}
+
+	private void writeLow(int data) {
+		int channel = latch >> 1;
+		if ((latch & 1) != 0) {
+			attenuation[channel] = data;
+		} else if (channel < 3) {
+			tone[channel] = (tone[channel] & 0x3F0) | data;
+		} else {
+			noise = data & 7;
+			lfsr = 0x8000;
+		}
+	}
+
+	//	escribe samples muestras mono en buffer desde offset
+	void render(int[] buffer, int offset, int samples) {
+		while (samples > 0) {
+			int count = Math.min(samples, MAX_BATCH);
+			renderBatch(buffer, offset, count);
+			offset += count;
+			samples -= count;
+		}
+	}
+
+	private void renderBatch(int[] buffer, int offset, int samples) {
+		//	cambios de volumen desde la tanda anterior, al principio de esta
+		for (int c = 0; c < 4; c++) {
+			setAmplitude(c, 0, output[c] != 0 ? VOLUME[attenuation[c]] : 0);
+		}
+
+		for (int c = 0; c < 3; c++) {
+			int period = tone[c];
+			if (period <= 1) {		//	0 y 1 dejan la salida fija en alto, se usa para reproducir PCM con el volumen
+				output[c] = 1;
+				setAmplitude(c, 0, VOLUME[attenuation[c]]);
+				counter[c] = 1;
+				continue;
+			}
+			int volume = VOLUME[attenuation[c]];
+			int t = counter[c];
+			while (t < samples) {
+				output[c] ^= 1;
+				setAmplitude(c, t, output[c] != 0 ? volume : 0);
+				t += period;
+			}
+			counter[c] = t - samples;
+		}
+
+		//	el LFSR se desplaza cada dos vueltas del contador de ruido
+		int period = (noise & 3) == 3 ? tone[2] * 2 : 0x20 << (noise & 3);
+		if (period < 2) {
+			period = 2;
+		}
+		int volume = VOLUME[attenuation[3]];
+		boolean white = (noise & 4) != 0;
+		int t = counter[3];
+		while (t < samples) {
+			int feedback = white ? (lfsr ^ (lfsr >> 3)) & 1 : lfsr & 1;
+			lfsr = (lfsr >> 1) | (feedback << 15);
+			output[3] = lfsr & 1;
+			setAmplitude(3, t, output[3] != 0 ? volume : 0);
+			t += period;
+		}
+		counter[3] = t - samples;
+
+		//	integracion, y la cola de los escalones pasa a la tanda siguiente
+		int[] d = deltas;
+		int acc = accumulator;
+		for (int i = 0; i < samples; i++) {
+			acc += d[i];
+			buffer[offset + i] = acc >> KERNEL_SHIFT;
+		}
+		accumulator = acc;
+		System.arraycopy(d, samples, d, 0, KERNEL);
+		Arrays.fill(d, KERNEL, samples + KERNEL, 0);
+	}
+
+	private void setAmplitude(int c, int position, int value) {
+		int delta = value - amplitude[c];
+		if (delta == 0) {
+			return;
+		}
+		amplitude[c] = value;
+		int[] d = deltas;
+		for (int k = 0; k < KERNEL; k++) {
+			d[position + k] += delta * STEP[k];
+		}
+	}
+
+}
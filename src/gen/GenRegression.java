@@ -0,0 +1,274 @@
+package gen;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//	Corre una lista de ROMs sin ventana, con el joypad manejado por un archivo de input, y saca un
+//	hash de los frames elegidos para compararlo con el guardado (golden). Tambien mide los fps de
+//	cada corrida, asi cualquier cambio en GenVdp, Gen68 o GenBus se puede chequear por imagen
+//	identica y por velocidad. Cada ROM corre en su propio Genefusto, varias en paralelo.
+//
+//	Uso: java gen.GenRegression <lista> [-threads n] [-record] [-report archivo] [-wav]
+//
+//	Lista, una ROM por linea (# comentario), rutas relativas a la lista:
+//		rom	frames	cadaCuantosFramesHash	[input]
+//	Input, una linea por cambio (# comentario), los botones quedan apretados hasta el cambio siguiente:
+//		frame	botones		(letras de UDLRABCS, o - para ninguno)
+//	Los golden van en <rom>.golden, una linea "frame hash" por frame; -record los escribe.
+//	El reporte es una linea JSON por ROM, en el orden de la lista, a -report o a System.out; lo que
+//	imprime el emulador (mapper, DMA, Z80) va a System.err, asi la salida se puede parsear tal cual.
+//	Con -wav el audio de cada ROM se graba en <rom>.wav.
+public class GenRegression {
+
+	static class Job {
+		File rom;
+		int frames;
+		int hashEvery;
+		File input;
+	}
+
+	static class Result {
+		Job job;
+		String status;		//	pass, fail, recorded, nogolden, error
+		double fps;
+		long millis;
+		List<Integer> mismatches = new ArrayList<>();
+		String error;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.out.println("Uso: java gen.GenRegression <lista> [-threads n] [-record] [-report archivo] [-wav]");
+			return;
+		}
+
+		File list = new File(args[0]);
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean record = false;
+		boolean wav = false;
+		File reportFile = null;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("-threads")) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-record")) {
+				record = true;
+			} else if (args[i].equals("-report")) {
+				reportFile = new File(args[++i]);
+			} else if (args[i].equals("-wav")) {
+				wav = true;
+			}
+		}
+
+		List<Job> jobs = readList(list);
+
+		PrintStream out = System.out;
+		System.setOut(System.err);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Result>> futures = new ArrayList<>();
+		for (Job job : jobs) {
+			final boolean recording = record;
+			final boolean audio = wav;
+			futures.add(pool.submit(() -> run(job, recording, audio)));
+		}
+
+		PrintStream report = reportFile != null ? new PrintStream(reportFile, "UTF-8") : out;
+		boolean failed = false;
+		for (Future<Result> future : futures) {
+			Result result = future.get();
+			report.println(toJson(result));
+			if (result.status.equals("fail") || result.status.equals("error")) {
+				failed = true;
+			}
+		}
+		if (reportFile != null) {
+			report.close();
+		}
+		pool.shutdown();
+
+		System.exit(failed ? 1 : 0);
+	}
+
+	static List<Job> readList(File list) throws IOException {
+		List<Job> jobs = new ArrayList<>();
+		File dir = list.getAbsoluteFile().getParentFile();
+		for (String line : Files.readAllLines(list.toPath(), StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] parts = line.split("\\s+");
+			Job job = new Job();
+			job.rom = new File(dir, parts[0]);
+			job.frames = Integer.parseInt(parts[1]);
+			job.hashEvery = Integer.parseInt(parts[2]);
+			if (parts.length > 3) {
+				job.input = new File(dir, parts[3]);
+			}
+			jobs.add(job);
+		}
+		return jobs;
+	}
+
+	static Result run(Job job, boolean record, boolean wav) {
+		Result result = new Result();
+		result.job = job;
+		try {
+			TreeMap<Integer, Integer> input = job.input != null ? readInput(job.input) : new TreeMap<>();
+			TreeMap<Integer, Long> hashes = new TreeMap<>();
+
+			Genefusto emu = new Genefusto(false, true);
+			if (wav) {
+				emu.wavFile = new File(job.rom.getPath() + ".wav");
+			}
+			emu.loadRom(job.rom);
+
+			long start = System.nanoTime();
+			for (int frame = 1; frame <= job.frames; frame++) {
+				Integer buttons = input.containsKey(frame) ? input.get(frame) : null;
+				if (buttons != null) {
+					applyInput(emu.joypad, buttons);
+				}
+
+				emu.runFrame();
+
+				if (frame % job.hashEvery == 0) {
+					hashes.put(frame, hashFrame(emu.vdp));
+				}
+			}
+			result.millis = (System.nanoTime() - start) / 1_000_000;
+			result.fps = job.frames / Math.max(result.millis / 1000.0, 0.001);
+			emu.stopSound();
+
+			File golden = new File(job.rom.getPath() + ".golden");
+			if (record) {
+				writeGolden(golden, hashes);
+				result.status = "recorded";
+			} else if (!golden.exists()) {
+				result.status = "nogolden";
+			} else {
+				TreeMap<Integer, Long> expected = readGolden(golden);
+				for (Integer frame : expected.keySet()) {
+					if (!expected.get(frame).equals(hashes.get(frame))) {
+						result.mismatches.add(frame);
+					}
+				}
+				result.status = result.mismatches.isEmpty() ? "pass" : "fail";
+			}
+		} catch (Exception e) {
+			result.status = "error";
+			result.error = e.toString();
+		}
+		return result;
+	}
+
+	//	botones apretados por frame: bit 0 U, 1 D, 2 L, 3 R, 4 A, 5 B, 6 C, 7 S
+	static TreeMap<Integer, Integer> readInput(File file) throws IOException {
+		TreeMap<Integer, Integer> input = new TreeMap<>();
+		for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] parts = line.split("\\s+");
+			int buttons = 0;
+			if (parts.length > 1) {
+				for (char c : parts[1].toUpperCase(Locale.ROOT).toCharArray()) {
+					int bit = "UDLRABCS".indexOf(c);
+					if (bit >= 0) {
+						buttons |= 1 << bit;
+					}
+				}
+			}
+			input.put(Integer.parseInt(parts[0]), buttons);
+		}
+		return input;
+	}
+
+	//	en GenJoypad 0 es apretado
+	static void applyInput(GenJoypad joypad, int buttons) {
+		joypad.U = (buttons & 0x01) != 0 ? 0 : 1;
+		joypad.D = (buttons & 0x02) != 0 ? 0 : 1;
+		joypad.L = (buttons & 0x04) != 0 ? 0 : 1;
+		joypad.R = (buttons & 0x08) != 0 ? 0 : 1;
+		joypad.A = (buttons & 0x10) != 0 ? 0 : 1;
+		joypad.B = (buttons & 0x20) != 0 ? 0 : 1;
+		joypad.C = (buttons & 0x40) != 0 ? 0 : 1;
+		joypad.S = (buttons & 0x80) != 0 ? 0 : 1;
+	}
+
+	//	FNV-1a de 64 bits sobre los indices del frame y el RGB de la paleta de cada fila, asi tambien
+	//	se detectan cambios de color
+	static long hashFrame(GenVdp vdp) {
+		long hash = 0xCBF29CE484222325L;
+		int rows = vdp.frameHeight();
+		int width = vdp.isH40() ? 320 : 256;
+		byte[] frame = vdp.frame;
+
+		int lastPalette = -1;
+		for (int row = 0; row < rows; row++) {
+			int palette = vdp.linePalette[row];
+			if (palette != lastPalette) {
+				int[] lut = vdp.palettes[palette];
+				for (int i = 0; i < GenVdp.LUT_SIZE; i++) {
+					hash = (hash ^ lut[i]) * 0x100000001B3L;
+				}
+				lastPalette = palette;
+			}
+			int pos = row * GenVdp.FRAME_WIDTH;
+			for (int x = 0; x < width; x++) {
+				hash = (hash ^ frame[pos + x]) * 0x100000001B3L;
+			}
+		}
+		return hash;
+	}
+
+	static TreeMap<Integer, Long> readGolden(File file) throws IOException {
+		TreeMap<Integer, Long> hashes = new TreeMap<>();
+		for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+			String[] parts = line.trim().split("\\s+");
+			if (parts.length == 2) {
+				hashes.put(Integer.parseInt(parts[0]), Long.parseUnsignedLong(parts[1], 16));
+			}
+		}
+		return hashes;
+	}
+
+	static void writeGolden(File file, TreeMap<Integer, Long> hashes) throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (Integer frame : hashes.keySet()) {
+			lines.add(frame + " " + Long.toHexString(hashes.get(frame)));
+		}
+		Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+	}
+
+	static String toJson(Result result) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"rom\":\"").append(escape(result.job.rom.getPath())).append('"');
+		sb.append(",\"status\":\"").append(result.status).append('"');
+		sb.append(",\"frames\":").append(result.job.frames);
+		sb.append(",\"millis\":").append(result.millis);
+		sb.append(",\"fps\":").append(String.format(Locale.ROOT, "%.2f", result.fps));
+		sb.append(",\"mismatches\":").append(result.mismatches);
+		if (result.error != null) {
+			sb.append(",\"error\":\"").append(escape(result.error)).append('"');
+		}
+		sb.append('}');
+		return sb.toString();
+	}
+
+	static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+}
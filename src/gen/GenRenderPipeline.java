@@ -0,0 +1,275 @@
+package gen;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+//	Render en otro thread: mientras el 68k emula el frame N+1, el render thread dibuja el frame N.
+//	El thread de emulacion no dibuja nada, solo guarda por cada tanda de lineas pendientes (ver
+//	GenVdp.syncRender) una copia del estado que usa el render: registros, CRAM, VSRAM y la SAT
+//	cacheada son chicos y se copian siempre, la VRAM es copy-on-write: solo se copia de nuevo si
+//	se escribio desde la copia anterior.
+//	Hay 2 frames que van y vienen entre los dos threads por dos slots atomicos (un productor y un
+//	consumidor), asi no se aloca nada mientras corre y la latencia es de un frame como mucho.
+public class GenRenderPipeline {
+
+	static final int MAX_SEGMENTS = 224;
+	static final int VRAM_COPIES = 4;	//	copias de VRAM con las que arranca cada frame, crecen si hacen falta
+
+	static class Segment {
+		int fromLine;
+		int toLine;
+		int vramCopy;
+		int cramVersion;
+
+		int[] registers = new int[24];
+		int[] cram = new int[0x80];
+		int[] vsram = new int[0x50];
+
+		int[] satY = new int[80];
+		int[] satX = new int[80];
+		int[] satWidth = new int[80];
+		int[] satHeight = new int[80];
+		int[] satAttr = new int[80];
+		int[] satYRaw = new int[80];
+		int odd;
+	}
+
+	static class Frame {
+		Segment[] segments = new Segment[MAX_SEGMENTS];
+		int segmentCount;
+
+		int[][] vram = new int[VRAM_COPIES][0x10000];
+		int vramCount;
+		boolean collision;	//	el render thread vio sprites superpuestos, vuelve con el frame libre
+
+		int[][] spritesPerLine = new int[256][80];
+		int[] lastIndexes = new int[256];
+		boolean[] lineOverflow = new boolean[256];
+		int[] lastSpriteWidth = new int[256];
+
+		Frame() {
+			for (int i = 0; i < MAX_SEGMENTS; i++) {
+				segments[i] = new Segment();
+			}
+		}
+
+		//	el juego escribio la VRAM en medio del display mas veces que las copias que hay: se
+		//	duplican y quedan para los frames siguientes, como mucho una por segmento
+		void growVram() {
+			int count = vram.length;
+			vram = Arrays.copyOf(vram, Math.min(count * 2, MAX_SEGMENTS));
+			for (int i = count; i < vram.length; i++) {
+				vram[i] = new int[0x10000];
+			}
+			System.out.println("Render pipeline: " + vram.length + " VRAM copies per frame");
+		}
+	}
+
+	GenVdp vdp;
+	GenVdp renderer;	//	VDP "sombra" que corre en el render thread con el estado guardado
+	GenParallelRenderer parallel;	//	null: el render thread dibuja todas las lineas el solo
+
+	Frame current;
+	boolean vramDirty = true;
+
+	final AtomicReference<Frame> ready = new AtomicReference<>();
+	final AtomicReference<Frame> free = new AtomicReference<>();
+
+	Thread thread;
+	Thread emulation;	//	el que espera en publish, el render thread lo despierta al liberar un frame
+	volatile boolean running;
+
+	GenRenderPipeline(GenVdp vdp) {
+		this.vdp = vdp;
+		this.renderer = new GenVdp(vdp.bus);
+
+		current = new Frame();
+		free.set(new Frame());
+	}
+
+	void start() {
+		running = true;
+		thread = new Thread(this::renderLoop, "Genefusto render");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	void stop() {
+		running = false;
+		LockSupport.unpark(thread);
+		if (parallel != null) {
+			parallel.shutdown();
+		}
+	}
+
+	//	Emulation thread: las lineas [from, to) se dibujan con el estado actual del VDP
+	void recordSegment(int from, int to) {
+		Frame frame = current;
+		if (frame.segmentCount == MAX_SEGMENTS) {
+			Segment last = frame.segments[MAX_SEGMENTS - 1];
+			last.toLine = to;
+			return;
+		}
+
+		//	con el display apagado el render solo usa el color de fondo, la VRAM no se copia
+		boolean display = (vdp.registers[1] & 0x40) == 0x40;
+		if (display && (vramDirty || frame.vramCount == 0)) {
+			if (frame.vramCount == frame.vram.length) {
+				frame.growVram();
+			}
+			System.arraycopy(vdp.vram, 0, frame.vram[frame.vramCount++], 0, 0x10000);
+			vramDirty = false;
+		}
+
+		Segment segment = frame.segments[frame.segmentCount++];
+		segment.fromLine = from;
+		segment.toLine = to;
+		segment.vramCopy = Math.max(frame.vramCount - 1, 0);
+		segment.cramVersion = vdp.cramVersion;
+
+		System.arraycopy(vdp.registers, 0, segment.registers, 0, 24);
+		System.arraycopy(vdp.cram, 0, segment.cram, 0, 0x80);
+		System.arraycopy(vdp.vsram, 0, segment.vsram, 0, 0x50);
+
+		System.arraycopy(vdp.satY, 0, segment.satY, 0, 80);
+		System.arraycopy(vdp.satX, 0, segment.satX, 0, 80);
+		System.arraycopy(vdp.satWidth, 0, segment.satWidth, 0, 80);
+		System.arraycopy(vdp.satHeight, 0, segment.satHeight, 0, 80);
+		System.arraycopy(vdp.satAttr, 0, segment.satAttr, 0, 80);
+		System.arraycopy(vdp.satYRaw, 0, segment.satYRaw, 0, 80);
+		segment.odd = vdp.odd;
+	}
+
+	//	Emulation thread: fin del frame, se lo pasa al render thread y agarra el otro
+	void publish() {
+		Frame frame = current;
+		captureSprites(frame);
+		emulation = Thread.currentThread();
+
+		while (!ready.compareAndSet(null, frame)) {
+			if (!running) {		//	el render thread ya no esta, el frame no se muestra
+				discard();
+				return;
+			}
+			LockSupport.parkNanos(1_000_000);
+		}
+		LockSupport.unpark(thread);
+
+		Frame next;
+		while ((next = free.getAndSet(null)) == null) {
+			if (!running) {
+				discard();
+				return;
+			}
+			LockSupport.parkNanos(1_000_000);
+		}
+		if (next.collision) {	//	la colision de sprites llega con un frame de atraso
+			vdp.scol = 1;
+			next.collision = false;
+		}
+		next.segmentCount = 0;
+		next.vramCount = 0;
+		current = next;
+		vramDirty = true;
+	}
+
+	void captureSprites(Frame frame) {
+		//	las listas de sprites por linea solo cambian al empezar el frame, alcanza con copiarlas aca
+		for (int j = 0; j < 256; j++) {
+			System.arraycopy(vdp.spritesPerLine[j], 0, frame.spritesPerLine[j], 0, 80);
+		}
+		System.arraycopy(vdp.lastIndexes, 0, frame.lastIndexes, 0, 256);
+		System.arraycopy(vdp.lineOverflow, 0, frame.lineOverflow, 0, 256);
+		System.arraycopy(vdp.lastSpriteWidth, 0, frame.lastSpriteWidth, 0, 256);
+	}
+
+	//	Emulation thread: frame con el display apagado, no hay nada que mostrar
+	void discard() {
+		current.segmentCount = 0;
+		current.vramCount = 0;
+		vramDirty = true;
+	}
+
+	private void renderLoop() {
+		while (running) {
+			Frame frame = ready.getAndSet(null);
+			if (frame == null) {
+				LockSupport.parkNanos(1_000_000);
+				continue;
+			}
+
+			renderFrame(frame);
+
+			free.set(frame);
+			LockSupport.unpark(emulation);
+		}
+	}
+
+	void renderFrame(Frame frame) {
+		GenVdp r = renderer;
+
+		drawFrame(frame);
+
+		if (r.scol == 1) {	//	el VDP del emulador es de otro thread, se la pasa en el frame (ver publish)
+			frame.collision = true;
+			r.scol = 0;
+		}
+
+		vdp.bus.emu.renderScreen(r);
+	}
+
+	//	deja el frame compaginado en renderer.frame, con sus paletas
+	void drawFrame(Frame frame) {
+		GenVdp r = renderer;
+
+		r.paletteCount = 0;
+		for (int i = 0; i < frame.segmentCount; i++) {
+			Segment segment = frame.segments[i];
+			loadSegment(r, frame, segment);
+			if (r.paletteCount == 0 || r.cramVersion != r.paletteVersion) {
+				r.rebuildColorBanks();	//	la CRAM del segmento no se escribio aca, se reemplazo entera
+			}
+			r.assignPalette(segment.fromLine, segment.toLine);
+		}
+
+		if (parallel != null) {
+			parallel.render(frame, r, 0xE0);
+			return;
+		}
+
+		r.spritesPerLine = frame.spritesPerLine;
+		r.lastIndexes = frame.lastIndexes;
+		r.lineOverflow = frame.lineOverflow;
+		r.lastSpriteWidth = frame.lastSpriteWidth;
+
+		for (int i = 0; i < frame.segmentCount; i++) {
+			Segment segment = frame.segments[i];
+			loadSegment(r, frame, segment);
+
+			for (int line = segment.fromLine; line < segment.toLine; line++) {
+				r.renderLine(line);
+			}
+		}
+
+		r.compaginateImage();
+	}
+
+	static void loadSegment(GenVdp r, Frame frame, Segment segment) {
+		r.registers = segment.registers;
+		r.cram = segment.cram;
+		r.vsram = segment.vsram;
+		r.vram = frame.vram[segment.vramCopy];
+		r.cramVersion = segment.cramVersion;
+		r.disp = (segment.registers[1] & 0x40) == 0x40;
+
+		r.satY = segment.satY;
+		r.satX = segment.satX;
+		r.satWidth = segment.satWidth;
+		r.satHeight = segment.satHeight;
+		r.satAttr = segment.satAttr;
+		r.satYRaw = segment.satYRaw;
+		r.odd = segment.odd;
+	}
+
+}
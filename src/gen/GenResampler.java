@@ -0,0 +1,101 @@
+package gen;
+
+//	Resampler polifasico con sinc ventaneada (Blackman): pasa un stream de la frecuencia de un chip a
+//	la del dispositivo. Los coeficientes se calculan una vez para PHASES posiciones fraccionarias (mas
+//	una, para interpolar entre fases vecinas), asi cada muestra de salida son taps multiplicaciones
+//	por canal sin calcular ningun seno.
+//	Cuando baja la frecuencia el corte es el Nyquist de la salida y el filtro se alarga en proporcion.
+//	El paso de entrada por muestra de salida se puede corregir en cada bloque (adjust) para el
+//	control dinamico de frecuencia, ver GenAudioOutput.
+public class GenResampler {
+
+	static final int PHASES = 256;
+
+	final int channels;
+	final int taps;
+	final double step;				//	muestras de entrada por muestra de salida
+	private final float[] kernel;	//	(PHASES + 1) * taps
+
+	private int[] history;			//	entrada pendiente, canales intercalados
+	private int count;				//	muestras (por canal) en history
+	private double position;		//	de la proxima salida dentro de history
+
+	int[] output;					//	salida intercalada, la consume el mezclador
+	int outputCount;
+
+	//	zeroCrossings: cruces por cero de la sinc de cada lado, medidos en muestras de salida
+	GenResampler(double inputRate, double outputRate, int channels, int zeroCrossings, int maxInput) {
+		this.channels = channels;
+		this.step = inputRate / outputRate;
+
+		double ratio = Math.min(1, outputRate / inputRate);
+		double cutoff = 0.5 * ratio * 0.92;
+		int length = (int) Math.ceil((2 * zeroCrossings) / ratio);
+		taps = length + (length & 1);
+
+		kernel = new float[(PHASES + 1) * taps];
+		for (int p = 0; p <= PHASES; p++) {
+			double frac = (double) p / PHASES;
+			double sum = 0;
+			double[] h = new double[taps];
+			for (int k = 0; k < taps; k++) {
+				double x = k - ((taps / 2) - 1) - frac;
+				double sinc = x == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+				double u = (x + (taps / 2)) / taps;
+				double window = 0.42 - (0.5 * Math.cos(2 * Math.PI * u)) + (0.08 * Math.cos(4 * Math.PI * u));
+				h[k] = sinc * window;
+				sum += h[k];
+			}
+			for (int k = 0; k < taps; k++) {
+				kernel[(p * taps) + k] = (float) (h[k] / sum);
+			}
+		}
+
+		history = new int[(maxInput + taps) * channels];
+		output = new int[((int) (maxInput / step / 0.99) + 4) * channels];
+	}
+
+	//	agrega frames muestras de entrada y genera todas las salidas que ya se pueden calcular
+	void write(int[] in, int frames, double adjust) {
+		System.arraycopy(in, 0, history, count * channels, frames * channels);
+		count += frames;
+
+		double step = this.step * adjust;
+		int[] h = history;
+		float[] kern = kernel;
+		int out = outputCount * channels;
+		while (((int) position + taps) <= count && out < output.length) {
+			int i = (int) position;
+			double p = (position - i) * PHASES;
+			int phase = (int) p;
+			float t = (float) (p - phase);
+			int k0 = phase * taps;
+			int k1 = k0 + taps;
+			for (int ch = 0; ch < channels; ch++) {
+				float acc0 = 0;
+				float acc1 = 0;
+				int base = (i * channels) + ch;
+				for (int k = 0; k < taps; k++) {
+					int v = h[base + (k * channels)];
+					acc0 += v * kern[k0 + k];
+					acc1 += v * kern[k1 + k];
+				}
+				output[out++] = (int) (acc0 + ((acc1 - acc0) * t));
+			}
+			position += step;
+		}
+		outputCount = out / channels;
+
+		int consumed = Math.min((int) position, count);
+		System.arraycopy(h, consumed * channels, h, 0, (count - consumed) * channels);
+		count -= consumed;
+		position -= consumed;
+	}
+
+	//	el mezclador ya uso las primeras frames salidas
+	void consume(int frames) {
+		System.arraycopy(output, frames * channels, output, 0, (outputCount - frames) * channels);
+		outputCount -= frames;
+	}
+
+}
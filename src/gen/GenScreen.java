@@ -0,0 +1,229 @@
+package gen;
+
+import java.awt.BufferCapabilities;
+import java.awt.Canvas;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.ImageCapabilities;
+import java.awt.Toolkit;
+import java.awt.Window;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.swing.SwingUtilities;
+
+//	Salida de video con active rendering: los frames se dibujan con un BufferStrategy en vez de
+//	repaint() (que es asincronico, junta frames y agrega latencia). El thread que termina el frame
+//	lo deja en un triple buffer y un thread propio de presentacion agarra siempre el mas nuevo.
+//	El escalado es entero (x1 a x4) y se hace a mano sobre una imagen escalada que se guarda, asi
+//	el blit es 1 a 1 sin interpolar. Si cambia el ancho (H32 / H40) o la escala, se recrea la
+//	imagen y se ajusta el tamao de la ventana.
+public class GenScreen extends Canvas {
+
+	private static final long serialVersionUID = 1L;
+
+	static final int HEIGHT = 224;
+
+	private int width = 320;
+	private int height = HEIGHT;	//	448 en interlace mode 2
+	private int scale = 1;
+	private volatile int requestedScale = 1;
+
+	private volatile boolean vsync;
+	private boolean strategyVsync;
+
+	private BufferedImage scaled;
+	private int[] scaledPixels;
+
+	static final long FRAME_NANOS = 1_000_000_000L / 60;
+
+	final GenTripleBuffer frames = new GenTripleBuffer();
+	private Thread presenter;
+
+	private final int[] paletteMap = new int[GenVdp.FRAME_HEIGHT_INTERLACE];
+
+	public GenScreen() {
+		setIgnoreRepaint(true);
+		setFocusable(false);	//	las teclas las escucha el JFrame
+		setPreferredSize(new Dimension(width, HEIGHT));
+		createScaledImage();
+	}
+
+	public void setScale(int scale) {
+		requestedScale = Math.max(1, Math.min(scale, 4));
+		resizeWindow(width, height, requestedScale);
+	}
+
+	public int getScale() {
+		return requestedScale;
+	}
+
+	//	vsync: intenta page flipping (el flip espera el retrace si el driver lo soporta) y sincroniza
+	//	con el toolkit despues de cada show()
+	public void setVsync(boolean vsync) {
+		this.vsync = vsync;
+	}
+
+	//	productor: copia el frame indexado y sus paletas al buffer de atras y lo publica, sin esperar
+	//	a que se dibuje
+	public void submit(GenVdp vdp) {
+		GenTripleBuffer.Frame out = frames.backBuffer();
+		int rows = vdp.frameHeight();
+		out.width = vdp.isH40() ? 320 : 256;
+		out.height = rows;
+		System.arraycopy(vdp.frame, 0, out.pixels, 0, GenVdp.FRAME_WIDTH * rows);
+
+		//	solo las paletas que usa alguna fila, casi siempre una
+		Arrays.fill(paletteMap, -1);
+		int used = 0;
+		for (int row = 0; row < rows; row++) {
+			int palette = vdp.linePalette[row];
+			int mapped = paletteMap[palette];
+			if (mapped == -1) {
+				mapped = used++;
+				paletteMap[palette] = mapped;
+				System.arraycopy(vdp.palettes[palette], 0, out.palettes[mapped], 0, GenVdp.LUT_SIZE);
+			}
+			out.linePalette[row] = mapped;
+		}
+		frames.publish();
+
+		if (presenter == null) {
+			presenter = new Thread(this::presentLoop, "Genefusto screen");
+			presenter.setDaemon(true);
+			presenter.start();
+		}
+		LockSupport.unpark(presenter);
+	}
+
+	//	Cada frame nuevo se presenta apenas llega (el productor despierta al thread). Si pasa un
+	//	refresco entero sin frame nuevo cuenta como duplicado, y con vsync se vuelve a mostrar el
+	//	ultimo para no perder el ritmo del flip
+	private void presentLoop() {
+		while (true) {
+			if (frames.acquire()) {
+				present(frames.frontBuffer());
+				continue;
+			}
+
+			long start = System.nanoTime();
+			LockSupport.parkNanos(FRAME_NANOS);
+			if (System.nanoTime() - start >= FRAME_NANOS && !frames.hasFresh()) {
+				frames.repeated();
+				if (vsync) {
+					present(frames.frontBuffer());
+				}
+			}
+		}
+	}
+
+	private void present(GenTripleBuffer.Frame frame) {
+		int width = frame.width;
+		if (width == 0) {
+			return;
+		}
+		if (width != this.width || frame.height != height || requestedScale != scale) {
+			this.width = width;
+			this.height = frame.height;
+			this.scale = requestedScale;
+			createScaledImage();
+			resizeWindow(width, height, scale);
+		}
+
+		scaleFrame(frame);
+
+		if (!isDisplayable()) {
+			return;
+		}
+		BufferStrategy strategy = getStrategy();
+		if (strategy == null) {
+			return;
+		}
+
+		do {
+			do {
+				Graphics g = strategy.getDrawGraphics();
+				g.drawImage(scaled, 0, 0, null);
+				g.dispose();
+			} while (strategy.contentsRestored());
+
+			strategy.show();
+		} while (strategy.contentsLost());
+
+		if (vsync) {
+			Toolkit.getDefaultToolkit().sync();
+		}
+	}
+
+	//	aca es el unico lugar donde se pasa de indice a RGB, con la LUT de cada linea
+	private void scaleFrame(GenTripleBuffer.Frame frame) {
+		int s = scale;
+		int[] out = scaledPixels;
+		int rowWidth = width * s;
+		byte[] pixels = frame.pixels;
+
+		for (int y = 0; y < height; y++) {
+			int[] lut = frame.palettes[frame.linePalette[y]];
+			int pos = (y * s) * rowWidth;
+			int src = y * GenVdp.FRAME_WIDTH;
+			if (s == 1) {
+				for (int x = 0; x < width; x++) {
+					out[pos + x] = lut[pixels[src + x] & 0xFF];
+				}
+				continue;
+			}
+			for (int x = 0; x < width; x++) {
+				int color = lut[pixels[src + x] & 0xFF];
+				for (int i = 0; i < s; i++) {
+					out[pos++] = color;
+				}
+			}
+			//	las otras filas de la linea son iguales a la primera
+			int first = (y * s) * rowWidth;
+			for (int i = 1; i < s; i++) {
+				System.arraycopy(out, first, out, first + (i * rowWidth), rowWidth);
+			}
+		}
+	}
+
+	private void createScaledImage() {
+		scaled = new BufferedImage(width * scale, height * scale, BufferedImage.TYPE_INT_RGB);
+		scaledPixels = ((DataBufferInt) scaled.getRaster().getDataBuffer()).getData();
+	}
+
+	private BufferStrategy getStrategy() {
+		boolean wantVsync = vsync;
+		if (getBufferStrategy() == null || wantVsync != strategyVsync) {
+			strategyVsync = wantVsync;
+			if (wantVsync) {
+				try {
+					createBufferStrategy(2, new BufferCapabilities(new ImageCapabilities(true),
+							new ImageCapabilities(true), BufferCapabilities.FlipContents.UNDEFINED));
+				} catch (Exception e) {
+					System.out.println("Page flipping not available, using blit: " + e.getMessage());
+					createBufferStrategy(2);
+				}
+			} else {
+				createBufferStrategy(2);
+			}
+		}
+		return getBufferStrategy();
+	}
+
+	private void resizeWindow(int width, int height, int scale) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				setPreferredSize(new Dimension(width * scale, height * scale));
+				Window window = SwingUtilities.getWindowAncestor(GenScreen.this);
+				if (window != null) {
+					window.pack();
+				}
+			}
+		});
+	}
+
+}
@@ -0,0 +1,155 @@
+package gen;
+
+import java.util.concurrent.locks.LockSupport;
+
+//	Thread de audio: tiene su propio YM2612 y PSG y los hace avanzar con las escrituras que le manda
+//	la emulacion por GenSoundQueue. Antes de aplicar cada escritura genera las muestras hasta su
+//	momento, asi el DAC (registro 0x2A, que los juegos escriben miles de veces por segundo) queda en
+//	la muestra que le toca aunque la emulacion vaya adelantada. Al final de cada frame llega un SYNC
+//	que genera hasta ahi y entrega el bloque a la salida.
+//	Los timers del YM (status, IRQ del Z80) se leen en la emulacion, asi que corren alla con su propio
+//	GenYm2612 (Genefusto.endLine); este solo los corre para el modo CSM.
+//	El master clock (~53.7 MHz) divide justo a los dos chips: el YM genera una muestra cada 7 * 144
+//	ciclos y el PSG cada 15 * 16.
+public class GenSound {
+
+	static final int MASTER_CLOCK = 53693175;
+	static final int FM_DIVIDER = 7 * 144;
+	static final int PSG_DIVIDER = 15 * 16;
+
+	static final int FM_BUFFER = 4096;		//	muestras estereo, sobra para un frame (~888)
+	static final int PSG_BUFFER = 16384;	//	muestras mono (~3728 por frame)
+
+	//	recibe cada bloque generado, en el thread de audio
+	interface Output {
+		void samples(int[] fm, int fmSamples, int[] psg, int psgSamples);
+	}
+
+	final GenSoundQueue queue;
+	final GenYm2612 ym = new GenYm2612();
+	final GenPsg psg = new GenPsg();
+
+	volatile Output output;
+	volatile long frames;	//	SYNC procesados
+
+	int[] fmBuffer = new int[FM_BUFFER * 2];
+	int fmSamples;
+	long fmPosition;		//	muestras generadas desde el reset
+
+	int[] psgBuffer = new int[PSG_BUFFER];
+	int psgSamples;
+	long psgPosition;
+
+	private Thread thread;
+	private volatile boolean running;
+
+	GenSound(GenSoundQueue queue) {
+		this.queue = queue;
+	}
+
+	void start() {
+		running = true;
+		thread = new Thread(this::soundLoop, "Genefusto sound");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	//	termina el thread y aplica lo que haya quedado en la cola
+	void stop() {
+		if (thread == null) {
+			return;
+		}
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		process();
+	}
+
+	boolean isRunning() {
+		return running && thread != null && thread.isAlive();
+	}
+
+	//	sin salida no se arranca el thread: la emulacion tira lo que se escribio en el frame
+	void drop() {
+		queue.consume(queue.available());
+		frames++;
+	}
+
+	//	emulacion: lo despierta al final del frame en vez de esperar a que venza el park
+	void wakeUp() {
+		LockSupport.unpark(thread);
+	}
+
+	private void soundLoop() {
+		while (running) {
+			if (process() == 0) {
+				LockSupport.parkNanos(2_000_000);
+			}
+		}
+	}
+
+	//	aplica lo que haya en la cola, devuelve cuantos registros leyo
+	int process() {
+		int available = queue.available();
+		for (int n = 0; n < available; n++) {
+			int record = queue.record(n);
+			renderTo(queue.time(n));
+			switch (GenSoundQueue.chip(record)) {
+			case GenSoundQueue.YM:
+				ym.write(GenSoundQueue.port(record), GenSoundQueue.data(record));
+				break;
+			case GenSoundQueue.PSG:
+				psg.write(GenSoundQueue.data(record));
+				break;
+			case GenSoundQueue.SYNC:
+				flush();
+				frames++;
+				break;
+			}
+		}
+		queue.consume(available);
+		return available;
+	}
+
+	//	genera las dos salidas hasta el momento time (en ciclos del master clock)
+	void renderTo(long time) {
+		int fm = (int) ((time / FM_DIVIDER) - fmPosition);
+		while (fm > 0) {
+			if (fmSamples == FM_BUFFER) {
+				flush();
+			}
+			int count = Math.min(fm, FM_BUFFER - fmSamples);
+			ym.runTimers(count);
+			ym.render(fmBuffer, fmSamples * 2, count);
+			fmSamples += count;
+			fmPosition += count;
+			fm -= count;
+		}
+
+		int samples = (int) ((time / PSG_DIVIDER) - psgPosition);
+		while (samples > 0) {
+			if (psgSamples == PSG_BUFFER) {
+				flush();
+			}
+			int count = Math.min(samples, PSG_BUFFER - psgSamples);
+			psg.render(psgBuffer, psgSamples, count);
+			psgSamples += count;
+			psgPosition += count;
+			samples -= count;
+		}
+	}
+
+	void flush() {
+		Output out = output;
+		if (out != null && (fmSamples > 0 || psgSamples > 0)) {
+			out.samples(fmBuffer, fmSamples, psgBuffer, psgSamples);
+		}
+		fmSamples = 0;
+		psgSamples = 0;
+	}
+
+}
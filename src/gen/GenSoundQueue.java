@@ -0,0 +1,83 @@
+package gen;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+//	Cola sin locks de escrituras a los chips de sonido, de un productor (el thread de emulacion) a un
+//	consumidor (el thread de audio, ver GenSound). Cada registro lleva el momento emulado en ciclos
+//	del master clock, asi el audio aplica la escritura en la muestra exacta aunque la genere despues.
+//	Es un anillo de tamao potencia de 2 con dos contadores que solo crecen: tail lo escribe el
+//	productor y head el consumidor, cada uno publica el suyo con release y lee el otro con acquire.
+//	Si esta llena la escritura se descarta y se cuenta: la emulacion nunca espera al audio.
+public class GenSoundQueue {
+
+	static final int YM = 0;		//	puerto 0-3 y dato
+	static final int PSG = 1;		//	dato
+	static final int SYNC = 2;		//	sin escritura, el audio genera hasta aca (fin de frame)
+
+	private final long[] times;
+	private final int[] records;	//	chip << 16 | puerto << 8 | dato
+	private final int mask;
+
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	volatile long overflows;
+
+	GenSoundQueue(int capacity) {
+		if (Integer.bitCount(capacity) != 1) {
+			throw new RuntimeException("Sound queue capacity must be a power of 2: " + capacity);
+		}
+		times = new long[capacity];
+		records = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	static int pack(int chip, int port, int data) {
+		return (chip << 16) | (port << 8) | (data & 0xFF);
+	}
+
+	static int chip(int record) {
+		return record >> 16;
+	}
+
+	static int port(int record) {
+		return (record >> 8) & 0xFF;
+	}
+
+	static int data(int record) {
+		return record & 0xFF;
+	}
+
+	//	productor
+	boolean offer(long time, int record) {
+		long t = tail.getPlain();
+		if (t - head.getAcquire() > mask) {
+			overflows++;
+			return false;
+		}
+		int i = (int) t & mask;
+		times[i] = time;
+		records[i] = record;
+		tail.setRelease(t + 1);
+		return true;
+	}
+
+	//	consumidor: cuantos registros hay para leer, despues time(n) y record(n) con n < available
+	//	y al final consume(n)
+	int available() {
+		return (int) (tail.getAcquire() - head.getPlain());
+	}
+
+	long time(int n) {
+		return times[(int) (head.getPlain() + n) & mask];
+	}
+
+	int record(int n) {
+		return records[(int) (head.getPlain() + n) & mask];
+	}
+
+	void consume(int n) {
+		head.setRelease(head.getPlain() + n);
+	}
+
+}
@@ -0,0 +1,167 @@
+package gen;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+//	Contadores siempre prendidos: instrucciones del 68k y del Z80, accesos al bus por region, frames
+//	dibujados y salteados, y tiempo por subsistema. Los escribe solo el thread de emulacion con ++ comun,
+//	sin atomicos; JMX los lee desde otro thread y a lo sumo ve un valor un poco viejo.
+//	El tiempo se mide en 1 de cada SAMPLE pasos de Genefusto.step y se multiplica, porque leer el reloj
+//	en cada instruccion costaria mas que la instruccion.
+public class GenStats implements GenStatsMXBean {
+
+	static final int SAMPLE = 64;
+	static final int SAMPLE_MASK = SAMPLE - 1;
+
+	static final int ROM = 0;
+	static final int Z80 = 1;
+	static final int IO = 2;
+	static final int VDP = 3;
+	static final int RAM = 4;
+	static final int OTHER = 5;
+
+	static final String[] REGION_NAMES = { "rom", "z80", "io", "vdp", "ram", "other" };
+
+	//	region por los 8 bits altos de la direccion
+	static final byte[] REGION = new byte[0x100];
+
+	static {
+		for (int i = 0; i < 0x100; i++) {
+			int region;
+			if (i <= 0x3F) {
+				region = ROM;
+			} else if (i == 0xA0) {
+				region = Z80;
+			} else if (i >= 0xA1 && i <= 0xBF) {
+				region = IO;
+			} else if (i >= 0xC0 && i <= 0xDF) {
+				region = VDP;
+			} else if (i >= 0xE0) {
+				region = RAM;
+			} else {
+				region = OTHER;
+			}
+			REGION[i] = (byte) region;
+		}
+	}
+
+	Genefusto emu;
+
+	long instructions68k;
+	long instructionsZ80;
+	long cyclesZ80Idle;		//	ciclos que el Z80 no ejecuto por estar en HALT o en un loop de espera
+	long[] busReads = new long[REGION_NAMES.length];
+	long[] busWrites = new long[REGION_NAMES.length];
+	long framesRendered;
+	long framesSkipped;
+
+	int steps;
+	long nanos68k;
+	long nanosZ80;
+	long nanosVdp;
+
+	GenStats(Genefusto emu) {
+		this.emu = emu;
+	}
+
+	void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("gen:type=Stats"));
+		} catch (Exception e) {
+			System.out.println("JMX stats not registered: " + e);
+		}
+	}
+
+	static int region(long address) {
+		return REGION[(int) (address >> 16) & 0xFF];
+	}
+
+	//	tiempos de un paso medido, el del Z80 ya descontado de los otros dos (corre adentro de ellos)
+	void sample(long z80, long cpu, long vdp) {
+		nanosZ80 += z80 * SAMPLE;
+		nanos68k += cpu * SAMPLE;
+		nanosVdp += vdp * SAMPLE;
+	}
+
+	@Override
+	public long getInstructions68k() {
+		return instructions68k;
+	}
+
+	@Override
+	public long getInstructionsZ80() {
+		return instructionsZ80;
+	}
+
+	@Override
+	public long getCyclesZ80Idle() {
+		return cyclesZ80Idle;
+	}
+
+	@Override
+	public Map<String, Long> getBusReads() {
+		return toMap(busReads);
+	}
+
+	@Override
+	public Map<String, Long> getBusWrites() {
+		return toMap(busWrites);
+	}
+
+	private Map<String, Long> toMap(long[] counters) {
+		Map<String, Long> map = new LinkedHashMap<>();
+		for (int i = 0; i < counters.length; i++) {
+			map.put(REGION_NAMES[i], counters[i]);
+		}
+		return map;
+	}
+
+	@Override
+	public long getFramesRendered() {
+		return framesRendered;
+	}
+
+	@Override
+	public long getFramesSkipped() {
+		return framesSkipped;
+	}
+
+	@Override
+	public long getFramesDropped() {
+		GenScreen screen = emu.screen;
+		return screen != null ? screen.frames.getDroppedFrames() : 0;
+	}
+
+	@Override
+	public long getMillis68k() {
+		return nanos68k / 1_000_000;
+	}
+
+	@Override
+	public long getMillisZ80() {
+		return nanosZ80 / 1_000_000;
+	}
+
+	@Override
+	public long getMillisVdp() {
+		return nanosVdp / 1_000_000;
+	}
+
+	@Override
+	public void reset() {
+		instructions68k = 0;
+		instructionsZ80 = 0;
+		cyclesZ80Idle = 0;
+		busReads = new long[REGION_NAMES.length];
+		busWrites = new long[REGION_NAMES.length];
+		framesRendered = 0;
+		framesSkipped = 0;
+		nanos68k = 0;
+		nanosZ80 = 0;
+		nanosVdp = 0;
+	}
+
+}
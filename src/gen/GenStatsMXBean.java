@@ -0,0 +1,32 @@
+package gen;
+
+import java.util.Map;
+
+//	contadores del emulador por JMX (jconsole, VisualVM), ver GenStats
+public interface GenStatsMXBean {
+
+	long getInstructions68k();
+
+	long getInstructionsZ80();
+
+	long getCyclesZ80Idle();
+
+	Map<String, Long> getBusReads();
+
+	Map<String, Long> getBusWrites();
+
+	long getFramesRendered();
+
+	long getFramesSkipped();
+
+	long getFramesDropped();
+
+	long getMillis68k();
+
+	long getMillisZ80();
+
+	long getMillisVdp();
+
+	void reset();
+
+}
@@ -0,0 +1,82 @@
+package gen;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+//	Triple buffer sin locks entre el thread que termina los frames (emulacion o render thread) y el
+//	que los presenta. Hay 3 buffers: el de atras lo escribe el productor, el de adelante lo lee el
+//	presentador, y el del medio es el ultimo frame completo. Los dos threads solo intercambian su
+//	buffer con el del medio, asi el productor nunca espera y el presentador siempre agarra el mas
+//	nuevo. Cada frame se escribe una sola vez, no se copia entre buffers.
+public class GenTripleBuffer {
+
+	private static final int FRESH = 0x4;	//	el del medio tiene un frame que todavia no se presento
+
+	//	frame indexado como sale del VDP (ver GenVdp.frame) y las paletas de sus lineas
+	static class Frame {
+		byte[] pixels = new byte[GenVdp.FRAME_WIDTH * GenVdp.FRAME_HEIGHT_INTERLACE];
+		int width;
+		int height;
+
+		int[][] palettes = new int[GenVdp.FRAME_HEIGHT_INTERLACE][GenVdp.LUT_SIZE];
+		int[] linePalette = new int[GenVdp.FRAME_HEIGHT_INTERLACE];
+	}
+
+	final Frame[] buffers = { new Frame(), new Frame(), new Frame() };
+
+	private final AtomicInteger middle = new AtomicInteger(2);
+	private int back = 0;		//	solo productor
+	private int front = 1;		//	solo presentador
+
+	private volatile long published;
+	private volatile long dropped;		//	frames pisados en el medio sin llegar a presentarse
+	private volatile long duplicated;	//	refrescos en los que el presentador no tenia frame nuevo
+
+	//	productor
+	Frame backBuffer() {
+		return buffers[back];
+	}
+
+	void publish() {
+		int old = middle.getAndSet(back | FRESH);
+		if ((old & FRESH) != 0) {
+			dropped++;
+		}
+		back = old & 0x3;
+		published++;
+	}
+
+	boolean hasFresh() {
+		return (middle.get() & FRESH) != 0;
+	}
+
+	//	presentador: true si hay un frame nuevo adelante
+	boolean acquire() {
+		if ((middle.get() & FRESH) == 0) {
+			return false;
+		}
+		int old = middle.getAndSet(front);
+		front = old & 0x3;
+		return true;
+	}
+
+	void repeated() {
+		duplicated++;
+	}
+
+	Frame frontBuffer() {
+		return buffers[front];
+	}
+
+	public long getPublishedFrames() {
+		return published;
+	}
+
+	public long getDroppedFrames() {
+		return dropped;
+	}
+
+	public long getDuplicatedFrames() {
+		return duplicated;
+	}
+
+}
@@ -1,5 +1,7 @@
 package gen;
 
+import java.util.Arrays;
+
 //	info de quirks a implementar:
 //	https://emudocs.org/Genesis/Graphics/genvdp.txt
 
@@ -33,24 +35,15 @@ public class GenVdp {
 	int[] registers = new int[24];
 	int addr = 0x230;
 	
-	//	FIFO Buffer 4 levels
-	int[] fifoCode = new int[4];
-	int[] fifoAddress = new int[4];
-	int[] fifoData = new int[4];
-	
-	int currentFIFOReadEntry;
-	int currentFIFOWriteEntry;
-	
-	int nextFIFOReadEntry;
-	int nextFIFOWriteEntry;
-	
-	boolean controlSecond;
-	
 	boolean addressSecondWrite = false;
 	long firstWrite;
 	
 	int dataPort;
-	int addressPort;
+	
+	//	Destino ya decodificado del ultimo comando de direccion (vramMode) y la direccion actual,
+	//	que avanza con el auto incremento en cada acceso al puerto de datos. Asi cada escritura
+	//	es un solo branch y un store, sin volver a decodificar el comando.
+	int portAddress;
 	
 	//	Reg 0
 	//	Vertical Scroll Inhibit
@@ -141,8 +134,6 @@ public class GenVdp {
 //	PAL seems to be set when the system's display is PAL, and possibly reflects the state of having 240 line display enabled. The same information can be obtained from the version register.
 	int pal;
 	
-	long all;
-	
 	int line;
 	
 	int[][][] colorsCache = new int[8][8][8];
@@ -156,6 +147,8 @@ public class GenVdp {
 	}
 	
 	int readControl() {
+		syncRender();	//	SOVR y SCOL salen del render de sprites
+		
 //	TODO When you do a 16-bit read of the status register, the upper 6 bits are not set by the VDP. The value assigned to these bits will be whatever value these bits were set to from the last read the M68000 performed. Writes from the M68000 don't affect these bits, only reads.
 		int control = (
 				(empty << 9)
@@ -170,6 +163,9 @@ public class GenVdp {
 				| (pal << 0)
 				);
 		
+		sovr = 0;
+		scol = 0;
+		
 		return control;
 	}
 	
@@ -184,6 +180,8 @@ public class GenVdp {
 				cram[i] = 0xEE;
 			}
 		}
+		rebuildColorBanks();
+		cramVersion++;
 		for (int i = 0; i < vsram.length; i++) {
 			if (i % 2 == 0) {
 				vsram[i] = 0x07;
@@ -215,6 +213,8 @@ public class GenVdp {
 //	VRAM Fill		1	0
 //	VRAM Copy		1	1
 	public void writeControlPort(long data) {
+		syncRender();
+		
 		long mode = (data >> 13);
 			
 		if (!addressSecondWrite && mode == 0b100) {		//	Write 1 - Setting Register
@@ -227,8 +227,6 @@ public class GenVdp {
 
 	private void writeRamAddress(long data) {
 		if (!addressSecondWrite) {
-			System.out.println("first");
-			
 			firstWrite = data;
 			addressSecondWrite = true;
 			
@@ -237,20 +235,11 @@ public class GenVdp {
 
 			long first = firstWrite;
 			long second = data;
-			all = (first << 16) | second;
 			
 			int code = (int) ((first >> 14) | (((second >> 4) & 0xF) << 2));
 			int addr = (int) ((first & 0x3FFF) | ((second & 0x3) << 14));
-
-			System.out.println("second code " + Integer.toHexString(code));
 			
-			addressPort = addr;
-			autoIncrementTotal = 0;	// reset este acumulador
-			
-			//	reset de los flags	TODO confirmar que van aca
-			cramWrite2 = false;
-			vramWrite2 = false;
-			vsramWrite2 = false;
+			portAddress = addr;
 			
 			int addressMode = code & 0xF;	// solo el primer byte, el bit 4 y 5 son para DMA
 											// que ya fue contemplado arriba
@@ -267,40 +256,38 @@ public class GenVdp {
 				vramMode = VramMode.cramWrite;
 
 			} else if (addressMode == 0b0100) { // VSRAM Read
-				vramMode = VramMode.vsramWrite;
+				vramMode = VramMode.vsramRead;
 
 			} else if (addressMode == 0b0101) { // VSRAM Write
 				vramMode = VramMode.vsramWrite;
 			}
 			
-			System.out.println("Video mode: " + vramMode.toString());
-			
 			//	https://wiki.megadrive.org/index.php?title=VDP_DMA
 			if ((code & 0b100000) > 0) { // DMA
-				int dmaBits = code >> 4;
-				dmaRecien = true;
+				if ((registers[0x17] & 0x80) == 0) {		//	68k -> VRAM / CRAM / VSRAM
+					dmaModo = DmaMode.MEM_TO_VRAM;
+					memToVram = true;
 					
-				if ((dmaBits & 0b10) > 0) {		//	VRAM Fill
-					if ((registers[0x17] & 0x80) == 0x80) {
-//						FILL mode fills with same data from free even VRAM address.
-//						FILL for only VRAM.
-						dmaModo = DmaMode.VRAM_FILL;
-						vramFill = true;
-						
+					if (m1) {
+						startDmaMem(addr);
 					} else {
-						dmaModo = DmaMode.MEM_TO_VRAM;
-						memToVram = true;
-						
-						if (m1) {
-							dmaMem2Vram(all);
-						} else {
-							System.out.println("DMA but no m1 set !!");
-						}
+						System.out.println("DMA but no m1 set !!");
 					}
 					
-				} else if ((dmaBits & 0b11) > 0) {		//	VRAM Copy
+				} else if ((registers[0x17] & 0x40) == 0) {		//	VRAM Fill
+//					FILL mode fills with same data from free even VRAM address.
+//					FILL for only VRAM.
+					dmaModo = DmaMode.VRAM_FILL;
+					vramFill = true;
+					
+				} else {		//	VRAM Copy
 					dmaModo = DmaMode.VRAM_COPY;
-					throw new RuntimeException();
+					
+					if (m1) {
+						startDmaCopy(addr);
+					} else {
+						System.out.println("DMA but no m1 set !!");
+					}
 				}
 			}
 		}
@@ -310,12 +297,6 @@ public class GenVdp {
 		int dataControl = (int) (data & 0x00FF);
 		int reg = (int) ((data >> 8) & 0x1F);
 		
-		System.out.println("REG: " + pad(reg) + " - data: " + pad(dataControl));
-		
-		cramWrite2 = false;
-		vramWrite2 = false;
-		vsramWrite2 = false;
-		
 		registers[reg] = dataControl;
 		
 		if (reg == 0x00) {
@@ -344,6 +325,13 @@ public class GenVdp {
 			sz = 	((data >> 1) & 1) == 1;
 			mag = 	((data >> 0) & 1) == 1;
 		
+		} else if (reg == 0x05) {
+			satBase = (dataControl & 0x7F) * 0x200;	//	AT16 is only valid if 128 KB mode is enabled, and allows for rebasing the Sprite Attribute Table to the second 64 KB of VRAM.
+			reloadSatCache();
+			
+		} else if (reg == 0x0C) {
+			spriteOrderDirty = true;	//	cambian los limites de sprites por linea y por frame
+			
 		} else if (reg == 0x0F) {
 			autoIncrementData = (int) (data & 0xFF);
 		
@@ -365,98 +353,139 @@ public class GenVdp {
 		}		
 	}
 
-	boolean dmaRecien = false;
-	
-	public void dmaFill() {
-		if (dma == 1) {
-			int dmaLength = (dmaLengthCounterHi << 8) | dmaLengthCounterLo;
-			
-			int index;
-			long data;
-//			if (dmaRecien) {
-//				System.out.println("DMA MODE: " + dmaModo);
-//				
-//				currentFIFOReadEntry = nextFIFOReadEntry;
-//				currentFIFOWriteEntry = nextFIFOWriteEntry;
-//				index = currentFIFOReadEntry;
-//				data = dataPort;
-//				destAddr = addressPort;
-//				
-////				int code = (int) ((first >> 14) | (((second >> 4) & 0xF) << 2));
-//				
-//				fifoData[index] = data;
-////				fifoCode[index] = code;		// TODO implementar el code como esta en los otros writes de memory
-//			} else {
-//				index = currentFIFOReadEntry;
-//				data = fifoData[index];
-//				destAddr = fifoAddress[index];
-//			}
-			
-//			System.out.println(pad4(dmaLength));
-			
-			long first =  all >> 16;
-			long second = all & 0xFFFF;
-			
-			int code = (int) ((first >> 14) | (((second >> 4) & 0xF) << 2));
-			int addr = (int) ((first & 0x3FFF) | ((second & 0x3) << 13));
-			
-			int destAddr = (int) (((all & 0x3) << 14) | ((all & 0x3FFF_0000L) >> 16));
-			
-			if (destAddr % 2 == 1) {
-				System.out.println("IMPAR !");
-			}
-			
-			destAddr += autoIncrementTotal;
-			
-			int data1 = dataPort & 0xFF;
-			
-//			int data1 = (int) bus.read(sourceTrue);
-//			int data2 = (int) bus.read(sourceTrue + 1);
-			
-			destAddr = destAddr & 0xFFFF;	//	16 Zhang Majhong hace DMA length 0xFFFF que es el doble del limite (hace el doble de operaciones)
-			
-			if (vramMode == VramMode.vramWrite) {
-				writeVramByte(destAddr, data1);
-			} else {
-				throw new RuntimeException("SOLO ESCRIBE EN VRAM !! pasa este caso ?");
-			}
-			
-			dmaLength = (dmaLength - 1);	// idem FIXME no es fijo
-			if (dmaLength <= 0) {
-				dma = 0;
-				return;
+//	DMA en bloques: en cada linea el VDP tiene una cantidad fija de slots de acceso a memoria,
+//	muchos menos con el display activo que en el blanking. En vez de transferir un byte por
+//	instruccion del 68k, al final de cada linea se hace de una vez todo lo que entra en esa linea.
+//	https://wiki.megadrive.org/index.php?title=VDP_DMA
+//	Bytes por linea: H32 activo, H32 blanking, H40 activo, H40 blanking
+	static final int[] DMA_MEM_BYTES_PER_LINE	= { 16, 167, 18, 205 };
+	static final int[] DMA_FILL_BYTES_PER_LINE	= { 15, 166, 17, 204 };
+	static final int[] DMA_COPY_BYTES_PER_LINE	= {  8,  83,  9, 102 };
+	
+	int dmaSource;
+	int dmaDest;
+	int dmaRemaining;
+	int dmaFillData;
+	
+	private int dmaLength() {
+		int dmaLength = (dmaLengthCounterHi << 8) | dmaLengthCounterLo;
+		if (dmaLength == 0) {
+			dmaLength = 0x10000;	//	largo 0 transfiere 64K
+		}
+		return dmaLength;
+	}
+	
+	private void startDmaMem(int destAddr) {
+		int sourceAddr = ((registers[0x17] & 0x7F) << 16) | (registers[0x16] << 8) | (registers[0x15]);
+		
+		dmaSource = sourceAddr << 1;	// duplica, trabaja asi
+		dmaDest = destAddr;
+		dmaRemaining = dmaLength();
+		dma = 1;
+		dmaEvent = GenEvents.beginDma("mem", dmaSource, dmaDest, dmaRemaining);
+	}
+	
+	private void startDmaFill(int data, int fillAddress) {
+		dmaFillData = data & 0xFF;
+		dmaDest = (fillAddress + 1) & 0xFFFF;
+		dmaRemaining = dmaLength();
+		dma = 1;
+		dmaEvent = GenEvents.beginDma("fill", 0, dmaDest, dmaRemaining);
+	}
+	
+	private void startDmaCopy(int destAddr) {
+		dmaSource = (registers[0x16] << 8) | registers[0x15];	//	en bytes, dentro de la VRAM
+		dmaDest = destAddr;
+		dmaRemaining = dmaLength();
+		dma = 1;
+		dmaEvent = GenEvents.beginDma("copy", dmaSource, dmaDest, dmaRemaining);
+	}
+	
+	//	el 68k queda congelado mientras dura un DMA desde su memoria, fill y copy corren en paralelo
+	public boolean isCpuStalled() {
+		return dma == 1 && dmaModo == DmaMode.MEM_TO_VRAM;
+	}
+	
+	void runDma() {
+		if (dma == 0) {
+			return;
+		}
+		syncRender();
+		
+		int slot = (isH40() ? 2 : 0) + ((vb == 1 || !disp) ? 1 : 0);
+		
+		if (dmaModo == DmaMode.MEM_TO_VRAM) {
+			dmaMemChunk(DMA_MEM_BYTES_PER_LINE[slot]);
+		} else if (dmaModo == DmaMode.VRAM_FILL) {
+			dmaFillChunk(DMA_FILL_BYTES_PER_LINE[slot]);
+		} else {
+			dmaCopyChunk(DMA_COPY_BYTES_PER_LINE[slot]);
+		}
+		
+		portAddress = dmaDest & 0xFFFF;	//	el registro de direccion avanza junto con el DMA
+		
+		registers[0x14] = dmaLengthCounterHi = (dmaRemaining >> 8) & 0xFF;
+		registers[0x13] = dmaLengthCounterLo = dmaRemaining & 0xFF;
+		
+		if (dmaRemaining == 0) {
+			dma = 0;
+			GenEvents.endDma(dmaEvent);
+			dmaEvent = null;
+		}
+	}
+	
+	private void dmaFillChunk(int budget) {
+		if (vramMode != VramMode.vramWrite) {
+			throw new RuntimeException("SOLO ESCRIBE EN VRAM !! pasa este caso ?");
+		}
+		
+		int count = Math.min(budget, dmaRemaining);
+		int increment = autoIncrementData;
+		int dest = dmaDest;
+		
+		if (increment == 1 && dest + count <= 0x10000) {
+			Arrays.fill(vram, dest, dest + count, dmaFillData);
+			vramRangeWritten(dest, dest + count);
+			dest = (dest + count) & 0xFFFF;
+		} else {
+			for (int i = 0; i < count; i++) {
+				writeVramByte(dest, dmaFillData);
+				dest = (dest + increment) & 0xFFFF;	//	16 Zhang Majhong hace DMA length 0xFFFF que es el doble del limite (hace el doble de operaciones)
 			}
-			
-			autoIncrementTotal += registers[0xF];
-			
-			dmaLength = dmaLength & 0xFFFF;
-			dmaLengthCounterHi = dmaLength >> 8;
-			dmaLengthCounterLo = dmaLength & 0xFF;
-			
-			registers[0x14] = dmaLength >> 8;
-			registers[0x13] = dmaLength & 0xFF;
-			
-//			addressPort += 2;
-//			fifoAddress[index] = destAddr + 2;	//	FIXME, no es fijo, se actualiza en paralelo mientras se siguen ejecutando instrucciones, hay q contar ciclos de cpu
-//			
-//			if (dmaRecien) {
-//				dmaRecien = false;
-//				
-//				index = (index + 1) % 4;
-//				nextFIFOReadEntry = index;
-//				nextFIFOWriteEntry = index;
-//			}
 		}
+		
+		dmaDest = dest;
+		dmaRemaining -= count;
 	}
-
-	boolean vramWrite2 = false;
-	boolean cramWrite2 = false;
-	boolean vsramWrite2 = false;
 	
-	int vramWriteData;
-	int cramWriteData;
-	int vsramWriteData;
-	int firstData;
+	private void dmaCopyChunk(int budget) {
+		int count = Math.min(budget, dmaRemaining);
+		int increment = autoIncrementData;
+		int source = dmaSource;
+		int dest = dmaDest;
+		
+		//	el VDP copia byte a byte hacia adelante, si los rangos se pisan hay que respetar ese orden
+		boolean overlaps = dest > source && dest < source + count;
+		if (increment == 1 && !overlaps && source + count <= 0x10000 && dest + count <= 0x10000) {
+			System.arraycopy(vram, source, vram, dest, count);
+			vramRangeWritten(dest, dest + count);
+			source = (source + count) & 0xFFFF;
+			dest = (dest + count) & 0xFFFF;
+		} else {
+			for (int i = 0; i < count; i++) {
+				writeVramByte(dest, vram[source]);
+				source = (source + 1) & 0xFFFF;
+				dest = (dest + increment) & 0xFFFF;
+			}
+		}
+		
+		dmaSource = source;
+		dmaDest = dest;
+		dmaRemaining -= count;
+		
+		registers[0x16] = (source >> 8) & 0xFF;
+		registers[0x15] = source & 0xFF;
+	}
 	
 	DmaMode dmaModo;
 	
@@ -467,108 +496,87 @@ public class GenVdp {
 	boolean dmaRequested;
 	
 	public void writeDataPort(int data, Size size) {
+		syncRender();
+		
 		this.dataPort = data;
 
-		if (size == Size.BYTE) {
-			if (vramFill) {
-				if (vramMode == VramMode.vramWrite) {
-					vramWriteByte(data);
-				} else {
-					System.out.println("que hace ? otros modos ?");
-				}
-				
-				autoIncrementTotal = 1;
-				
-				if (m1) {
-					dma = 1;
-					vramFill = false;
-					
-					dataPort = (data << 8) | data;
-					
-					return;
-				} else {
-					System.out.println("M1 should be 1 in the DMA transfer. otherwise we can't guarantee the operation.");
-				}
-				
-			} else if (vramMode == VramMode.vramWrite) {
-				vramWriteByte(data);
-				
-			} else if (vramMode == VramMode.cramWrite) {
-				throw new RuntimeException("NOT IMPL !");
-			} else if (vramMode == VramMode.vsramWrite) {
-				throw new RuntimeException("NOT IMPL !");
-			} else {
-				System.out.println("Write pero mando read, Modo video: " + vramMode.toString());
-//				throw new RuntimeException("NOT IMPL !");
-			}
+		if (vramFill) {
+			startFill(data, size);
 			
 		} else if (size == Size.WORD) {
-			if (vramFill) {
-//				Performing a DMA fill does perform a normal VRAM write. After the VRAM write has been processed however, a DMA fill operation is triggered immediately after. Normal VRAM writes are always 16-bit, so the first write that is carried out when you try and start a DMA fill will always be 16-bit. The DMA fill operation that follows will perform 8-bit writes.
-				if (vramMode == VramMode.vramWrite) {
-					vramWriteWord(data);
-				} else {
-					System.out.println("que hace ? otros modos ?");
-				}
-				
-				autoIncrementTotal = 1;
-				
-				if (m1) {
-					dma = 1;
-					vramFill = false;
-					
-					dataPort = data;
-					
-					return;
-				} else {
-					System.out.println("M1 should be 1 in the DMA transfer. otherwise we can't guarantee the operation.");
-				}
-				
-			} else if (vramMode == VramMode.vramWrite) {
+			if (vramMode == VramMode.vramWrite) {
 				vramWriteWord(data);
-				
 			} else if (vramMode == VramMode.cramWrite) {
 				cramWriteWord(data);
-				
 			} else if (vramMode == VramMode.vsramWrite) {
 				vsramWriteWord(data);
-				
 			} else {
 				System.out.println("Write pero mando read, Modo video: " + vramMode.toString());
-//				throw new RuntimeException("NOT IMPL !");
 			}
 			
-		} else {	//	LONG
-			if (vramFill) {
-				if (m1) {
-					dma = 1;
-					vramFill = false;
-					
-					dataPort = data;
-					
-					return;
-				} else {
-					System.out.println("M1 should be 1 in the DMA transfer. otherwise we can't guarantee the operation.");
-				}
-				
-			} else if (vramMode == VramMode.vramWrite) {
-				vramWriteWord(data >> 16);
-				vramWriteWord(data & 0xFFFF);
-				
+		} else if (size == Size.LONG) {
+			writeDataPortLong(data);
+			
+		} else {
+			if (vramMode == VramMode.vramWrite) {
+				vramWriteByte(data);
 			} else if (vramMode == VramMode.cramWrite) {
-				cramWriteWord(data >> 16);
-				cramWriteWord(data & 0xFFFF);
-				
+				throw new RuntimeException("NOT IMPL !");
 			} else if (vramMode == VramMode.vsramWrite) {
-				vsramWriteWord(data >> 16);
-				vsramWriteWord(data & 0xFFFF);
-				
+				throw new RuntimeException("NOT IMPL !");
 			} else {
 				System.out.println("Write pero mando read, Modo video: " + vramMode.toString());
-//				throw new RuntimeException("NOT IMPL !");
+			}
+		}
+	}
+	
+	//	MOVE.L al puerto de datos: dos words seguidos con el destino resuelto una sola vez
+	public void writeDataPortLong(int data) {
+		syncRender();
+		
+		int high = (data >> 16) & 0xFFFF;
+		int low = data & 0xFFFF;
+		
+		if (vramMode == VramMode.vramWrite) {
+			vramWriteWord(high);
+			vramWriteWord(low);
+		} else if (vramMode == VramMode.cramWrite) {
+			cramWriteWord(high);
+			cramWriteWord(low);
+		} else if (vramMode == VramMode.vsramWrite) {
+			vsramWriteWord(high);
+			vsramWriteWord(low);
+		} else {
+			System.out.println("Write pero mando read, Modo video: " + vramMode.toString());
+		}
+	}
+	
+//	Performing a DMA fill does perform a normal VRAM write. After the VRAM write has been processed however, a DMA fill operation is triggered immediately after. Normal VRAM writes are always 16-bit, so the first write that is carried out when you try and start a DMA fill will always be 16-bit. The DMA fill operation that follows will perform 8-bit writes.
+	private void startFill(int data, Size size) {
+		int fillAddress = portAddress;
+		
+		if (size != Size.LONG) {
+			if (vramMode == VramMode.vramWrite) {
+				if (size == Size.BYTE) {
+					vramWriteByte(data);
+				} else {
+					vramWriteWord(data);
+				}
+			} else {
+				System.out.println("que hace ? otros modos ?");
 			}
 		}
 		
+		if (m1) {
+			vramFill = false;
+			
+			if (size == Size.BYTE) {
+				dataPort = (data << 8) | data;
+			}
+			startDmaFill(dataPort, fillAddress);
+		} else {
+			System.out.println("M1 should be 1 in the DMA transfer. otherwise we can't guarantee the operation.");
+		}
 	}
 
 //	 Registers 19, 20, specify how many 16-bit words to transfer:
@@ -604,90 +612,120 @@ public class GenVdp {
 //		 - Address register is incremented by the value in register #15.
 //		 - Repeat until length counter has expired.
 //		 - 68000 resumes operation.
-	private void dmaMem2Vram(long commandWord) {
-		int dmaLength = (dmaLengthCounterHi << 8) | dmaLengthCounterLo;
-		
-		long sourceAddr = ((registers[0x17] & 0x7F) << 16) | (registers[0x16] << 8) | (registers[0x15]);
-		long sourceTrue = sourceAddr << 1;	// duplica, trabaja asi
-		int destAddr = (int) (((commandWord & 0x3) << 14) | ((commandWord & 0x3FFF_0000L) >> 16));
-		
-		int index, data;
-		while (dmaLength > 0) {
-//			currentFIFOReadEntry = nextFIFOReadEntry;
-//			currentFIFOWriteEntry = nextFIFOWriteEntry;
-//			index = currentFIFOReadEntry;
-//			data = dataPort;
-//			destAddr = addressPort;
-//			
-//			fifoData[index] = data;
-
-			//TODO el pipe
-			
-//			int data1 = (int) bus.read(sourceTrue);
-//			int data2 = (int) bus.read(sourceTrue + 1);
-			
-			int dataWord = (int) bus.read(sourceTrue, Size.WORD);
-			int data1 = dataWord >> 8;
-			int data2 = dataWord & 0xFF;
-			
-			if (destAddr % 2 == 1) {
-				System.out.println("IMPAR !");
-			}
-			if (destAddr > 0xFFFF) {
-				return;
+	private void dmaMemChunk(int budgetBytes) {
+		int words;
+		if (vramMode == VramMode.vramWrite) {
+			words = budgetBytes / 2;
+		} else {
+			words = budgetBytes;	//	CRAM y VSRAM se cuentan en words
+		}
+		int count = Math.min(words, dmaRemaining);
+		int increment = registers[15];
+		int source = dmaSource;
+		int dest = dmaDest;
+		
+		if (vramMode == VramMode.vramWrite) {
+			int[] sourceArray = null;
+			int sourceOffset = 0;
+			int bytes = count * 2;
+			
+			//	ROM y RAM se leen directo del array, el resto (mapper, SRAM) pasa por el bus
+			int[] cartridge = bus.memory.cartridge;
+			if (source + bytes <= cartridge.length && !bus.ssf2Mapper
+					&& !(bus.writeSram && source + bytes > 0x200000 && source <= 0x20FFFF)) {
+				sourceArray = cartridge;
+				sourceOffset = source;
+			} else if (source >= 0xFF0000 && source + bytes <= 0x1000000) {
+				sourceArray = bus.memory.ram;
+				sourceOffset = source - 0xFF0000;
 			}
-			if (vramMode == VramMode.vramWrite) {
-				writeVramByte(destAddr, data1);
-				writeVramByte(destAddr + 1, data2);
+			
+			if (sourceArray != null && increment == 2 && (dest % 2) == 0 && dest + bytes <= 0x10000) {
+				System.arraycopy(sourceArray, sourceOffset, vram, dest, bytes);
+				vramRangeWritten(dest, dest + bytes);
 				
-			} else if (vramMode == VramMode.cramWrite) {
-				writeCramByte(destAddr, data1);
-				writeCramByte(destAddr + 1, data2);
-				
-			} else if (vramMode == VramMode.vsramWrite) {
-				vsram[destAddr] = data1;
-				vsram[destAddr + 1] = data2;
+				source += bytes;
+				dest += bytes;
 				
 			} else {
-				throw new RuntimeException("not");
+				for (int i = 0; i < count; i++) {
+					if (dest > 0xFFFF) {
+						count = dmaRemaining;	//	se aborta
+						break;
+					}
+					int dataWord = readDmaWord(source);
+					writeVramByte(dest, dataWord >> 8);
+					if (dest < 0xFFFF) {
+						writeVramByte(dest + 1, dataWord & 0xFF);
+					}
+					
+					source += 2;
+					dest += increment;
+				}
 			}
 			
-			sourceTrue += 2;
-			destAddr += registers[15];
+		} else if (vramMode == VramMode.cramWrite) {
+			for (int i = 0; i < count; i++) {
+				int dataWord = readDmaWord(source);
+				writeCramByte(dest, dataWord >> 8);
+				writeCramByte(dest + 1, dataWord & 0xFF);
+				
+				source += 2;
+				dest += increment;
+			}
 			
-			dmaLength--;
+		} else if (vramMode == VramMode.vsramWrite) {
+			for (int i = 0; i < count; i++) {
+				int dataWord = readDmaWord(source);
+				if (dest < 0x4F) {
+					vsram[dest] = dataWord >> 8;
+					vsram[dest + 1] = dataWord & 0xFF;
+				}
+				
+				source += 2;
+				dest += increment;
+			}
+			
+		} else {
+			throw new RuntimeException("not");
 		}
 		
-		int newSource = (int) (sourceTrue >> 1);
+		dmaSource = source;
+		dmaDest = dest;
+		dmaRemaining -= count;
+		
+		int newSource = source >> 1;
 		registers[0x17] = ((registers[0x17] & 0x80) | ((newSource >> 16) & 0x7F));
 		registers[0x16] = (newSource >> 8) & 0xFF;
 		registers[0x15] = newSource & 0xFF;
-				
-		dmaLengthCounterHi = 0;
-		dmaLengthCounterLo = 0;
-		registers[0x14] = 0;
-		registers[0x13] = 0;
-		
-//				int code = (int) ((first >> 14) | (((second >> 4) & 0xF) << 2));
-		
-//				fifoCode[index] = code;		// TODO implementar el code como esta en los otros writes de memory
-			
+	}
+	
+	private int readDmaWord(int address) {
+		int[] cartridge = bus.memory.cartridge;
+		if (address + 1 < cartridge.length && !bus.ssf2Mapper
+				&& !(bus.writeSram && address >= 0x200000 && address <= 0x20FFFF)) {
+			return (cartridge[address] << 8) | cartridge[address + 1];
+		} else if (address >= 0xFF0000 && address < 0xFFFFFF) {
+			int[] ram = bus.memory.ram;
+			return (ram[address - 0xFF0000] << 8) | ram[address - 0xFF0000 + 1];
+		}
+		return (int) bus.read(address, Size.WORD);
+	}
+	
+	//	para cuando se escribe VRAM por afuera de writeVramByte (copias en bloque)
+	private void vramRangeWritten(int from, int to) {
+		if (renderPipeline != null) {
+			renderPipeline.vramDirty = true;
+		}
 		
-			
-//		dmaLength = dmaLength & 0xFFFF;
-//		dmaLengthCounterHi = dmaLength >> 8;
-//		dmaLengthCounterLo = dmaLength & 0xFF;
-//			
-//		addressPort += 2;
-//		fifoAddress[index] = destAddr + 2;	//	FIXME, no es fijo, se actualiza en paralelo mientras se siguen ejecutando instrucciones, hay q contar ciclos de cpu
-//		
-//		if (dmaRecien) {
-//			dmaRecien = false;
-//			
-//			index = (index + 1) % 4;
-//			nextFIFOReadEntry = index;
-//			nextFIFOWriteEntry = index;
-//		}
+		int first = Math.max(from, satBase);
+		int last = Math.min(to, satBase + SAT_SIZE);
+		if (first >= last) {
+			return;
+		}
+		for (int i = (first - satBase) >> 3; i <= (last - 1 - satBase) >> 3; i++) {
+			updateSatCache(i);
+		}
 	}
 
 	private void writeCramByte(int address, int data) {
@@ -695,95 +733,44 @@ public class GenVdp {
 			return;
 		}
 		cram[address] = data;
+		updateColorBank(address >> 1);
+		cramVersion++;
 //		System.out.println(Integer.toHexString(address) + ": " + Integer.toHexString(data));
 	}
 
 	private void writeVramByte(int address, int data) {
 		vram[address] = data;
+		if (renderPipeline != null) {
+			renderPipeline.vramDirty = true;
+		}
+		
+		int satOffset = address - satBase;
+		if (satOffset >= 0 && satOffset < SAT_SIZE) {
+			updateSatCache(satOffset >> 3);
+		}
 	}
 	
-	int autoIncrementTotal;
-	
+	//	Si la direccion es impar el word se escribe con los bytes invertidos, en la direccion par
 	private void vramWriteWord(int data) {
-		int word = data;
-		
-		int index = nextFIFOReadEntry;
-		int address = addressPort;
-		
-		long first =  all >> 16;
-		long second = all & 0xFFFF;
-		
-		int code = (int) ((first >> 14) | (((second >> 4) & 0xF) << 2));
-		int addr = (int) ((first & 0x3FFF) | ((second & 0x3) << 14));
-		
-		int offset = addr + autoIncrementTotal;
-		
-		int data1 = (word >> 8) & 0xFF;
-		int data2 = word & 0xFF;
+		int address = portAddress;
 		
-		//	hack por si se pasa
-		if (offset > 0xFFFE) {
-			return;
+		if ((address & 1) == 0) {
+			writeVramByte(address, (data >> 8) & 0xFF);
+			writeVramByte(address + 1, data & 0xFF);
+		} else {
+			writeVramByte(address - 1, data & 0xFF);
+			writeVramByte(address, (data >> 8) & 0xFF);
 		}
 		
-		writeVramByte(offset, data1);
-		writeVramByte(offset + 1, data2);
-		
-//		System.out.println("addr: " + Integer.toHexString(offset) + " - data: " + Integer.toHexString(data1));
-//		System.out.println("addr: " + Integer.toHexString(offset + 1) + " - data: " + Integer.toHexString(data2));
-		
-		fifoAddress[index] = offset;
-		fifoCode[index] = code;
-		fifoData[index] = word;
-		
-		int incrementOffset = autoIncrementTotal + autoIncrementData;
-
-		address = address + incrementOffset;	// FIXME wrap
-		offset = offset + incrementOffset;
-		index = (index + 1) % 4;
-		
-		nextFIFOReadEntry = index;
-		nextFIFOWriteEntry = index;
-		autoIncrementTotal = incrementOffset;
+		portAddress = (address + autoIncrementData) & 0xFFFF;
 	}
 	
 	private void vramWriteByte(int data) {
-		int index = nextFIFOReadEntry;
-		int address = addressPort;
-		
-		long first =  all >> 16;
-		long second = all & 0xFFFF;
-		
-		int code = (int) ((first >> 14) | (((second >> 4) & 0xF) << 2));
-		int addr = (int) ((first & 0x3FFF) | ((second & 0x3) << 14));
-		
-		int offset = addr + autoIncrementTotal;
-		
-		data = data & 0xFF;
+		int address = portAddress;
 		
-		//	hack por si se pasa
-		if (offset > 0xFFFF) {
-			return;
-		}
-		
-		writeVramByte(offset, data);
+		writeVramByte(address, data & 0xFF);
 		
-//		System.out.println("addr: " + Integer.toHexString(offset) + " - data: " + Integer.toHexString(data1));
-//		System.out.println("addr: " + Integer.toHexString(offset + 1) + " - data: " + Integer.toHexString(data2));
-		
-		fifoAddress[index] = offset;
-		fifoCode[index] = code;
-		fifoData[index] = data;
-		
-		int incrementOffset = autoIncrementTotal + autoIncrementData;
-
-		address = address + incrementOffset;	// FIXME wrap
-		offset = offset + incrementOffset;
-		index = (index + 1) % 4;
-		
-		nextFIFOReadEntry = index;
-		nextFIFOWriteEntry = index;
-		autoIncrementTotal = incrementOffset;
+		portAddress = (address + autoIncrementData) & 0xFFFF;
 	}
 	
 //	https://emu-docs.org/Genesis/sega2f.htm
@@ -797,96 +784,25 @@ public class GenVdp {
 	// byte of word.
 //Note that A0 is used in the increment but not in address decoding, resulting in some interesting side-effects if writes are attempted at odd addresses.
 	private void cramWriteWord(int data) {
-//		if (!cramWrite2) {
-//			cramWriteData = data;
-//			cramWrite2 = true;
-//		} else {
-//			cramWrite2 = false;
-//			int word = (cramWriteData << 16) | data;
-			
-			int word = data;
+		int address = portAddress & 0x7E;
 		
-			int index = nextFIFOReadEntry;
-			int address = addressPort;
-			
-			long first =  all >> 16;
-			long second = all & 0xFFFF;
-			
-			int code = (int) ((first >> 14) | (((second >> 4) & 0xF) << 2));
-			int addr = (int) ((first & 0x3FFF) | ((second & 0x3) << 13));
-			
-			int offset = address + autoIncrementTotal;
-			
-			int data1 = (word >> 8) & 0xFF;
-			int data2 = word & 0xFF;
-			
-			writeCramByte(offset, data1);
-			writeCramByte(offset + 1, data2);
-			
-			fifoAddress[index] = offset;
-			fifoCode[index] = code;
-			fifoData[index] = (data1 << 8) | data2;
-			
-			int incrementOffset = autoIncrementTotal + autoIncrementData;
-			
-			address = address + incrementOffset;	// FIXME wrap
-			index = (index + 1) % 4;
-			fifoAddress[index] = address;
-			fifoCode[index] = code;
-			
-			nextFIFOReadEntry = (index + 1) % 4;
-			nextFIFOWriteEntry = (index + 1) % 4;
-			autoIncrementTotal = incrementOffset;
-//		}
+		cram[address] = (data >> 8) & 0xFF;
+		cram[address + 1] = data & 0xFF;
+		updateColorBank(address >> 1);
+		cramVersion++;
+		
+		portAddress = (portAddress + autoIncrementData) & 0xFFFF;
 	}
 	
 	private void vsramWriteWord(int data) {
-		int word = data;
-			
-		int index = nextFIFOReadEntry;
-		int address = addressPort;
-		
-		address = address & 0xFF;	//	no decodifica todo, arregla scroll vertical en 16 zhang mahjong intro
-		
-		long first =  all >> 16;
-		long second = all & 0xFFFF;
-		
-		int code = (int) ((first >> 14) | (((second >> 4) & 0xF) << 2));
-		int addr = (int) ((first & 0x3FFF) | ((second & 0x3) << 13));
+		int address = portAddress & 0x7E;	//	no decodifica todo, arregla scroll vertical en 16 zhang mahjong intro
 		
-		int offset = address + autoIncrementTotal;
-		
-		int data1 = (word >> 8) & 0xFF;
-		int data2 = word & 0xFF;
-		
-		if (offset < 0x50) {
-			vsram[offset] = data1;
-		}
-		if (offset < 0x50) {
-			vsram[offset + 1] = data2;
+		if (address < 0x50) {
+			vsram[address] = (data >> 8) & 0xFF;
+			vsram[address + 1] = data & 0xFF;
 		}
 		
-		fifoAddress[index] = offset;
-		fifoCode[index] = code;
-		fifoData[index] = (data1 << 8) | data2;
-		
-//		int data3 = (word >> 8) & 0xFF;
-//		int data4 = (word >> 0) & 0xFF;
-//		
-//		vsram[offset + 2] = data3;
-//		vsram[offset + 3] = data4;
-		
-		int incrementOffset = autoIncrementTotal + autoIncrementData;
-		
-//		address = address + incrementOffset;	// FIXME wrap
-//		index = (index + 1) % 4;
-//		fifoAddress[index] = address;
-//		fifoCode[index] = code;
-//		fifoData[index] = (data3 << 8) | data4;
-		
-		nextFIFOReadEntry = (index + 1) % 4;
-		nextFIFOWriteEntry = (index + 1) % 4;
-		autoIncrementTotal = incrementOffset;
+		portAddress = (portAddress + autoIncrementData) & 0xFFFF;
 	}
 	
 	public final String pad(int reg) {
@@ -908,192 +824,457 @@ public class GenVdp {
     int totalCycles = 0;
     int scanline = 0;
     
-	public int[][] screenData = new int[320][256];
+	//	Frame terminado, por filas: por pixel el indice de CRAM (0 a 63) y en los bits 6 y 7 el modo
+	//	(normal, shadow o highlight). Las capas tambien guardan indices, el RGB sale recien al
+	//	presentar, una vez por pixel, con la paleta (LUT de 3 x 64 colores) que tenia cada linea
+	static final int FRAME_WIDTH = 320;
+	static final int MODE_SHADOW = 0x40;
+	static final int MODE_HIGHLIGHT = 0x80;
+	static final int LUT_SIZE = 192;
+	
+	//	En interlace mode 2 cada campo escribe sus lineas intercaladas (filas pares o impares) en el
+	//	mismo frame de 448 filas, asi el frame progresivo queda armado sin copiar nada
+	static final int FRAME_HEIGHT_INTERLACE = 448;
+	
+	public byte[] frame = new byte[FRAME_WIDTH * FRAME_HEIGHT_INTERLACE];
+	
+	int[] colorBanks = new int[LUT_SIZE];		//	la CRAM en RGB, normal, shadow y highlight, al dia con cada escritura
+	int[][] palettes = new int[FRAME_HEIGHT_INTERLACE][LUT_SIZE];	//	una nueva solo cuando cambio la CRAM entre tandas de lineas, 224 por campo
+	int[] linePalette = new int[FRAME_HEIGHT_INTERLACE];	//	por fila del frame
+	int paletteCount;
+	int cramVersion;
+	int paletteVersion = -1;
     
 	public int[][] planeA = new int[320][256];
 	public int[][] planeB = new int[320][256];
 	public int[][] planeBack = new int[320][256];
 	
-	public boolean[][] planePrioA = new boolean[320][256];
-	public boolean[][] planePrioB = new boolean[320][256];
+	public boolean[][] planePrioA = new boolean[320][256];
+	public boolean[][] planePrioB = new boolean[320][256];
+	
+	public int[][] planeIndexColorA = new int[320][256];
+	public int[][] planeIndexColorB = new int[320][256];
+	
+	public int[][] sprites = new int[320][256];
+	public int[][] spritesIndex = new int[320][256];
+	public boolean[][] spritesPrio = new boolean[320][256];
+	
+	public int[][] window = new int[320][256];
+	public int[][] windowIndex = new int[320][256];
+	public boolean[][] windowPrio = new boolean[320][256];
+	
+	public void run(int cycles) {
+		totalCycles += cycles;
+		if (totalCycles < 800) {
+			hb = 0;
+		} else if (totalCycles >= 800 && totalCycles <= 982) {
+			hb = 1;
+		} else if (totalCycles > 982) {
+			if (line < 0xE0) {
+				bus.hLinesPassed--;
+				if (bus.hLinesPassed == -1) {
+					bus.hintPending = true;
+					bus.hLinesPassed = registers[0xA];
+				}
+			}
+			
+			line++;
+			totalCycles = 0;
+			
+			bus.emu.endLine();
+			
+			runDma();
+		}
+		if (line > 0xFF) {
+			line = 0;
+			renderedLines = 0;
+			GenEvents.endFrame(frameEvent);
+			frameEvent = GenEvents.beginFrame(frameCount);
+			paletteCount = 0;
+			odd = ((registers[0xC] & 0x2) != 0) ? odd ^ 1 : 0;	//	con interlace los frames alternan campo par e impar
+			evaluateSprites();
+			
+			bus.hLinesPassed = registers[0xA];
+		}
+		if (line == 0xE0 && totalCycles == 0) {
+			vip = 1;
+			vb = 1;
+			frameCount++;
+			if (stats != null) {
+				if ((registers[1] & 0x40) == 0x40) {
+					stats.framesRendered++;
+				} else {
+					stats.framesSkipped++;
+				}
+			}
+			if (frameEvent != null) {
+				frameEvent.rendered = (registers[1] & 0x40) == 0x40;
+			}
+			
+			spritesFrame = 0;
+			
+			syncRender();
+			
+			if (renderPipeline != null) {
+				if ((registers[1] & 0x40) == 0x40) {
+					renderPipeline.publish();
+				} else {
+					renderPipeline.discard();
+				}
+			} else if ((registers[1] & 0x40) == 0x40) {
+				compaginateImage();
+				
+				bus.emu.renderScreen(this);
+			}
+		} else if (line < 0xE0 && ((registers[1] & 0x40) == 0x40)) {	//	solo en 0 si el display esta prendido (apagado siempre esta en 1)
+			vb = 0;
+		}
+		
+	}
+
+	//	Render diferido (catch-up): al terminar una linea solo queda pendiente, y las lineas
+	//	pendientes se dibujan todas juntas recien cuando se va a escribir algo que cambia la imagen
+	//	(registros, VRAM, CRAM, VSRAM, que incluye la tabla de HScroll) o al final del frame.
+	//	Como se dibujan con el mismo estado que tenian al terminar cada linea, los efectos de
+	//	raster quedan iguales, pero el render corre en tandas seguidas sin mezclarse con el 68k.
+	int renderedLines;
+	long frameCount;
+	
+	GenStats stats;						//	solo en el VDP del emulador, no en los workers ni benchmarks
+	GenEvents.FrameEvent frameEvent;	//	con JFR grabando
+	GenEvents.DmaEvent dmaEvent;
+	
+	void syncRender() {
+		int target = Math.min(line, 0xE0);
+		if (renderedLines >= target) {
+			return;
+		}
+		
+		//	con el display apagado igual se dibujan, con el color de fondo (ver renderLine)
+		if (renderPipeline != null) {
+			renderPipeline.recordSegment(renderedLines, target);
+			if ((registers[1] & 0x40) == 0x40) {
+				for (int l = renderedLines; l < target; l++) {
+					if (lineOverflow[l]) {
+						sovr = 1;
+					}
+				}
+			}
+		} else {
+			assignPalette(renderedLines, target);
+			for (int l = renderedLines; l < target; l++) {
+				renderLine(l);
+			}
+		}
+		renderedLines = target;
+	}
+	
+	//	las lineas [from, to) usan la CRAM actual, se convierte solo si cambio desde la tanda anterior
+	void assignPalette(int from, int to) {
+		boolean interlace = isInterlace2();
+		int base = interlace ? odd * 0xE0 : 0;	//	las del otro campo siguen en uso en el frame
+		
+		if (paletteCount == 0 || paletteVersion != cramVersion) {
+			System.arraycopy(colorBanks, 0, palettes[base + paletteCount++], 0, LUT_SIZE);
+			paletteVersion = cramVersion;
+		}
+		int current = base + paletteCount - 1;
+		for (int l = from; l < to; l++) {
+			linePalette[interlace ? (l * 2) + odd : l] = current;
+		}
+	}
+	
+	//	0-63 normal, 64-127 shadow (mitad) y 128-191 highlight (mitad + 0x80)
+	void updateColorBank(int index) {
+		int color = cram[index * 2] << 8 | cram[(index * 2) + 1];
+		
+		int r = (color >> 1) & 0x7;
+		int g = (color >> 5) & 0x7;
+		int b = (color >> 9) & 0x7;
+		
+		int normal = getColour(r, g, b);
+		int half = (normal >> 1) & 0x7F7F7F;
+		
+		colorBanks[index] = normal;
+		colorBanks[index + 64] = half;
+		colorBanks[index + 128] = half + 0x808080;
+	}
+	
+	void rebuildColorBanks() {
+		for (int i = 0; i < 64; i++) {
+			updateColorBank(i);
+		}
+	}
+	
+	void renderLine(int l) {
+		if ((registers[1] & 0x40) == 0) {
+			renderBlank(l);
+			return;
+		}
+		if (isInterlace2()) {
+			renderBack(l);
+			renderPlaneInterlaced(l, true);
+			renderPlaneInterlaced(l, false);
+			renderWindow(l);
+			renderSpritesInterlaced(l);
+			return;
+		}
+		renderBack(l);
+		renderPlaneA(l);
+		renderPlaneB(l);
+		renderWindow(l);
+		renderSprites(l);
+	}
+	
+	//	display apagado: la linea es toda del color de fondo, los planos quedan sin dibujar
+	//	(window y sprites ya los limpia compaginateLines)
+	void renderBlank(int l) {
+		renderBack(l);
+		for (int x = 0; x < 320; x++) {
+			planeIndexColorA[x][l] = 0;
+			planeIndexColorB[x][l] = 0;
+		}
+	}
+	
+	//	null: se dibuja en este thread. Si no, las lineas se guardan y las dibuja el render thread
+	GenRenderPipeline renderPipeline;
+	
+	public void setRenderThread(boolean enabled) {
+		if (enabled && renderPipeline == null) {
+			renderPipeline = new GenRenderPipeline(this);
+			renderPipeline.start();
+		} else if (!enabled && renderPipeline != null) {
+			renderPipeline.stop();
+			renderPipeline = null;
+		}
+	}
+	
+	//	bandas de lineas en paralelo dentro del render thread (0 o 1: un solo thread)
+	public void setParallelRender(int threads) {
+		if (renderPipeline == null) {
+			return;
+		}
+		if (renderPipeline.parallel != null) {
+			renderPipeline.parallel.shutdown();
+			renderPipeline.parallel = null;
+		}
+		if (threads > 1) {
+			renderPipeline.parallel = new GenParallelRenderer(bus, threads);
+		}
+	}
+	
+	int spritesFrame = 0;
+	
+	int[][] spritesPerLine = new int[256][80];
+	int[] lastIndexes = new int[256];
+	
+	//	Copia interna de la SAT, igual que la que tiene el VDP adentro del chip: se actualiza solo
+	//	cuando se escribe VRAM dentro de la tabla, asi no hay que releer los 8 bytes de cada sprite
+	//	en cada linea ni recorrer la lista enlazada en cada frame
+	static final int SAT_SIZE = 80 * 8;
 	
-	public int[][] planeIndexColorA = new int[320][256];
-	public int[][] planeIndexColorB = new int[320][256];
+	int satBase;
+	int[] satY = new int[80];			//	ya sin el offset de 128
+	int[] satX = new int[80];			//	ya sin el offset de 128
+	int[] satWidth = new int[80];		//	en pixeles
+	int[] satHeight = new int[80];		//	en pixeles
+	int[] satLink = new int[80];
+	int[] satAttr = new int[80];		//	byte4 << 8 | byte5 (prioridad, paleta, flips y patron)
+	int[] satYRaw = new int[80];		//	los 10 bits, para interlace mode 2 (offset de 256)
 	
-	public int[][] sprites = new int[320][256];
-	public int[][] spritesIndex = new int[320][256];
-	public boolean[][] spritesPrio = new boolean[320][256];
+	int[] spriteOrder = new int[80];	//	orden en el que se recorre la lista enlazada
+	int spriteOrderCount;
+	boolean spriteOrderDirty = true;
 	
-	public int[][] window = new int[320][256];
-	public int[][] windowIndex = new int[320][256];
-	public boolean[][] windowPrio = new boolean[320][256];
+	boolean[] lineDirty = new boolean[256];
+	boolean anyLineDirty = true;
+	boolean[] lineOverflow = new boolean[256];
+	int[] lastSpriteWidth = new int[256];	//	pixeles que entran del ultimo sprite de la linea (dot overflow)
 	
-	public void run(int cycles) {
-		totalCycles += cycles;
-		if (totalCycles < 800) {
-			hb = 0;
-		} else if (totalCycles >= 800 && totalCycles <= 982) {
-			hb = 1;
-		} else if (totalCycles > 982) {
-			if ((registers[1] & 0x40) == 0x40) {
-				if (line < 0xE0) {
-					spritesLine = 0;
-					
-					renderBack();
-					renderPlaneA();
-					renderPlaneB();
-					renderWindow();
-					renderSprites();
-				}
-			}
-			
-			if (line < 0xE0) {
-				bus.hLinesPassed--;
-				if (bus.hLinesPassed == -1) {
-					bus.hintPending = true;
-					bus.hLinesPassed = registers[0xA];
-				}
-			}
+	private void decodeSatEntry(int index) {
+		int base = (satBase + (index * 8)) & 0xFFFF;
+		
+		int byte0 = vram[base];
+		int byte1 = vram[base + 1];
+		int byte2 = vram[base + 2];
+		int byte3 = vram[base + 3];
+		int byte4 = vram[base + 4];
+		int byte5 = vram[base + 5];
+		int byte6 = vram[base + 6];
+		int byte7 = vram[base + 7];
+		
+		satY[index] = ((((byte0 & 0x1) << 8) | byte1) - 128);	//	bit 9 interlace mode only
+		satYRaw[index] = ((byte0 & 0x3) << 8) | byte1;
+		satHeight[index] = ((byte2 & 0x3) + 1) * 8;
+		satWidth[index] = (((byte2 >> 2) & 0x3) + 1) * 8;
+		satLink[index] = byte3 & 0x7F;
+		satAttr[index] = (byte4 << 8) | byte5;
+		satX[index] = ((((byte6 & 0x1) << 8) | byte7) - 128);
+	}
+	
+	private void updateSatCache(int index) {
+		int oldY = satY[index];
+		int oldHeight = satHeight[index];
+		int oldWidth = satWidth[index];
+		int oldLink = satLink[index];
+		
+		decodeSatEntry(index);
+		
+		if (satLink[index] != oldLink) {
+			spriteOrderDirty = true;
 			
-			line++;
-			totalCycles = 0;
+		} else if (satY[index] != oldY || satHeight[index] != oldHeight || satWidth[index] != oldWidth || isInterlace2()) {
+			markSpriteLinesDirty(oldY, oldHeight);
+			markSpriteLinesDirty(satY[index], satHeight[index]);
 		}
-		if (line > 0xFF) {
-			line = 0;
-			evaluateSprites();
-			
-			bus.hLinesPassed = registers[0xA];
+	}
+	
+	private void reloadSatCache() {
+		for (int i = 0; i < 80; i++) {
+			decodeSatEntry(i);
 		}
-		if (line == 0xE0 && totalCycles == 0) {
-			vip = 1;
-			vb = 1;
-			
-			spritesFrame = 0;
-			
-			if ((registers[1] & 0x40) == 0x40) {
-				compaginateImage();
-				
-				bus.emu.renderScreen();
-			}
-		} else if (line < 0xE0 && ((registers[1] & 0x40) == 0x40)) {	//	solo en 0 si el display esta prendido (apagado siempre esta en 1)
-			vb = 0;
+		spriteOrderDirty = true;
+	}
+	
+	private void markSpriteLinesDirty(int y, int height) {
+		int from = Math.max(y, 0);
+		int to = Math.min(y + height, 256);
+		for (int j = from; j < to; j++) {
+			lineDirty[j] = true;
+		}
+		if (from < to) {
+			anyLineDirty = true;
 		}
-		
 	}
-
-	int spritesFrame = 0;
-	int spritesLine = 0;
 	
-	int[][] spritesPerLine = new int[256][80];
-	int[] lastIndexes = new int[256];
+	int frameHeight() {
+		return isInterlace2() ? FRAME_HEIGHT_INTERLACE : 0xE0;
+	}
+	
+	//	interlace mode 2: doble resolucion vertical, tiles de 8x16
+	boolean isInterlace2() {
+		return (registers[0xC] & 0x6) == 0x6;
+	}
+	
+	boolean isH40() {
+		int regC = registers[0xC];
+		return bitTest(regC, 7) && bitTest(regC, 0);
+	}
 	
-	private void evaluateSprites() {
-		int spriteTableLoc = registers[0x5] & 0x7F;	//	AT16 is only valid if 128 KB mode is enabled, and allows for rebasing the Sprite Attribute Table to the second 64 KB of VRAM.
-		int spriteTable = spriteTableLoc * 0x200;
+	private void rebuildSpriteOrder() {
+		int maxSprites = isH40() ? 80 : 64;
 		
-		int currSprite = 0;
-		for (int i = 0; i < 256; i++) {
-			lastIndexes[i] = 0;
-			for (int j = 0; j < 80; j++) {
-				spritesPerLine[i][j] = -1;
+		int count = 0;
+		int current = 0;
+		while (count < maxSprites) {
+			spriteOrder[count++] = current;
+			
+			current = satLink[current];
+			if (current == 0 || current >= maxSprites) {
+				break;
 			}
 		}
+		spriteOrderCount = count;
+		spriteOrderDirty = false;
 		
-		int regC = registers[0xC];
-		boolean rs0 = bitTest(regC, 7);
-		boolean rs1 = bitTest(regC, 0);
-		
-		int maxSprites = 64;
-		if (rs0 && rs1) {
-			maxSprites = 80;
+		markSpriteLinesDirty(0, 256);
+	}
+	
+	//	solo se reconstruyen las lineas tocadas por sprites que cambiaron desde el frame anterior
+	void evaluateSprites() {
+		if (spriteOrderDirty) {
+			rebuildSpriteOrder();
+		}
+		boolean interlace = isInterlace2();
+		if (interlace) {
+			markSpriteLinesDirty(0, 256);	//	las lineas de cada sprite dependen del campo
+		}
+		if (!anyLineDirty) {
+			return;
 		}
 		
-		for (int i = 0; i < maxSprites; i++) {
-			long baseAddress = spriteTable + (i* 8);
-			
-			int byte0 = vram[(int) (baseAddress)];
-			int byte1 = vram[(int) (baseAddress + 1)];
-			int byte2 = vram[(int) (baseAddress + 2)];
-			int byte3 = vram[(int) (baseAddress + 3)];
-			int byte4 = vram[(int) (baseAddress + 4)];
-			int byte5 = vram[(int) (baseAddress + 5)];
-			int byte6 = vram[(int) (baseAddress + 6)];
-			int byte7 = vram[(int) (baseAddress + 7)];
-			
-			int linkData = byte3 & 0x7F;
-			
-			int verticalPos = ((byte0 & 0x1) << 8) | byte1;
-			int verSize = byte2 & 0x3;
-			
-			int verSizePixels = (verSize + 1) * 8;
-			int realY = (int) (verticalPos - 128);
-			for (int j = realY; j < realY + verSizePixels; j++) {
-				if (j < 0 || j > 255) {
-					continue;
+		boolean h40 = isH40();
+		int maxPerLine = h40 ? 20 : 16;
+		int maxPixels = h40 ? 320 : 256;
+		
+		for (int j = 0; j < 256; j++) {
+			if (!lineDirty[j]) {
+				continue;
+			}
+			lineDirty[j] = false;
+			
+			int[] list = spritesPerLine[j];
+			int count = 0;
+			int pixels = 0;
+			int lastWidth = 0;
+			boolean overflow = false;
+			
+			for (int k = 0; k < spriteOrderCount; k++) {
+				int sprite = spriteOrder[k];
+				if (interlace) {
+					//	la linea j del campo es la fila (j * 2) + odd de 448, el sprite mide el doble
+					int y = satYRaw[sprite] - 256;
+					int first = (y - odd + 1) >> 1;
+					int end = (y + (satHeight[sprite] * 2) - odd + 1) >> 1;
+					if (j < first || j >= end) {
+						continue;
+					}
+				} else {
+					int y = satY[sprite];
+					if (j < y || j >= y + satHeight[sprite]) {
+						continue;
+					}
+				}
+				if (count == maxPerLine || pixels >= maxPixels) {
+					overflow = true;
+					break;
 				}
 				
-				int last = lastIndexes[j];
-				spritesPerLine[j][last] = i;
-				lastIndexes[j] = last + 1;
+				list[count++] = sprite;
+				lastWidth = Math.min(satWidth[sprite], maxPixels - pixels);
+				pixels += satWidth[sprite];
 			}
+			list[count] = -1;
 			
-			if (linkData == 0) {
-				return;
-			}
+			lastIndexes[j] = count;
+			lastSpriteWidth[j] = lastWidth;
+			lineOverflow[j] = overflow || pixels > maxPixels;
 		}
+		anyLineDirty = false;
 	}
 	
-	private void renderSprites() {
-		int spriteTableLoc = registers[0x5] & 0x7F;	//	AT16 is only valid if 128 KB mode is enabled, and allows for rebasing the Sprite Attribute Table to the second 64 KB of VRAM.
-		int spriteTable = spriteTableLoc * 0x200;
-		
-		long linkData = 0xFF;
-		long verticalPos;
-		
-		int line = this.line;
-		
-		long baseAddress = spriteTable;
+	int[] spritePriors = new int[320];	//	por pixel de la linea, 1 si ya hay un sprite dibujado
+	
+	void renderSprites(int line) {
 		int[] spritesInLine = spritesPerLine[line];
+		int lastInLine = lastIndexes[line] - 1;
 		int ind = 0;
 		int currSprite = spritesInLine[0];
 		
-		int[] priors = new int[320];
+		if (lineOverflow[line]) {
+			sovr = 1;
+		}
+		
+		int[] priors = spritePriors;
+		Arrays.fill(priors, 0);
 		
 		while (currSprite != -1) {
-			baseAddress = spriteTable + (currSprite *8);
-			
-			int byte0 = vram[(int) (baseAddress)];
-			int byte1 = vram[(int) (baseAddress + 1)];
-			int byte2 = vram[(int) (baseAddress + 2)];
-			int byte3 = vram[(int) (baseAddress + 3)];
-			int byte4 = vram[(int) (baseAddress + 4)];
-			int byte5 = vram[(int) (baseAddress + 5)];
-			int byte6 = vram[(int) (baseAddress + 6)];
-			int byte7 = vram[(int) (baseAddress + 7)];
-			
-			linkData = byte3 & 0x7F;
-			verticalPos = ((byte0 & 0x1) << 8) | byte1;		//	bit 9 interlace mode only
-			
-//			if (linkData == 0) {
-//				return;
-//			}
-			
-			int horSize = (byte2 >> 2) & 0x3;
-			int verSize = byte2 & 0x3;
-			
-			int horSizePixels = (horSize + 1) * 8;
-			int verSizePixels = (verSize + 1) * 8;
-			
-			int nextSprite = (int) ((linkData * 8) + spriteTable);
-			baseAddress = nextSprite;
-	
-			int realY = (int) (verticalPos - 128);
+			int realY = satY[currSprite];
+			int attr = satAttr[currSprite];
+			int byte4 = attr >> 8;
+			int byte5 = attr & 0xFF;
+			
+			int horSizePixels = satWidth[currSprite];
+			int verSizePixels = satHeight[currSprite];
+			int horSize = (horSizePixels / 8) - 1;
+			int verSize = (verSizePixels / 8) - 1;
+			
+			int cellsToDraw = horSize + 1;
+			if (ind == lastInLine) {
+				cellsToDraw = lastSpriteWidth[line] / 8;
+			}
 			
 			spritesFrame++;
-			spritesLine++;
-			if (spritesLine >= 20) {
-				return;
-			}
 			
 			int pattern = ((byte4 & 0x7) << 8) | byte5;
 			int palette = (byte4 >> 5) & 0x3;
@@ -1102,8 +1283,7 @@ public class GenVdp {
 			boolean verFlip = ((byte4 >> 4) & 0x1) == 1 ? true : false;
 			boolean horFlip = ((byte4 >> 3) & 0x1) == 1 ? true : false;
 			
-			int horizontalPos = ((byte6 & 0x1) << 8) | byte7;
-			int horOffset = horizontalPos - 128;
+			int horOffset = satX[currSprite];
 			
 			int spriteLine = (int) ((line - realY) % verSizePixels);
 			
@@ -1114,7 +1294,7 @@ public class GenVdp {
 				pointVert = spriteLine;
 			}
 			
-			for (int cellHor = 0; cellHor < (horSize + 1); cellHor++) {
+			for (int cellHor = 0; cellHor < cellsToDraw; cellHor++) {
 				//	16 bytes por cell de 8x8
 				//	cada linea dentro de una cell de 8 pixeles, ocupa 4 bytes (o sea, la mitad del ancho en bytes)
 				int currentVerticalCell = pointVert / 8;
@@ -1151,7 +1331,6 @@ public class GenVdp {
 					int colorIndex1 = paletteLine + (pixel1 * 2);
 					int colorIndex2 = paletteLine + (pixel2 * 2);
 					
-					int color1;
 					if (pixel1 == 0) {
 						if (horOffset >= 0 && horOffset < 320) {
 							if (spritesIndex[horOffset][line] == 0) {	// solo pisa si la prioridad anterior era 0
@@ -1161,28 +1340,21 @@ public class GenVdp {
 						}
 					} else {
 						if (horOffset >= 0 && horOffset < 320) {
+							if (spritesIndex[horOffset][line] != 0) {
+								scol = 1;
+							}
 							if (priors[horOffset] == 0 || (priors[horOffset] == 1 && priority)) {
 								if (priority) {
 									priors[horOffset] = 1;
 								}
 								
-								color1 = cram[colorIndex1] << 8 | cram[colorIndex1 + 1];
-								
-								int r = (color1 >> 1) & 0x7;
-								int g = (color1 >> 5) & 0x7;
-								int b = (color1 >> 9) & 0x7;
-		
-								int theColor1 = getColour(r, g, b);
-								
-								
-								sprites[horOffset][line] = theColor1;
+								sprites[horOffset][line] = colorIndex1 >> 1;
 								spritesIndex[horOffset][line] = pixel1;
 								spritesPrio[horOffset][line] = priority;
 							}
 						}
 					}
 					
-					int color2;
 					int horOffset2 = horOffset + 1;
 					if (pixel2 == 0) {
 						if (horOffset2 >= 0 && horOffset2 < 320) {
@@ -1193,21 +1365,15 @@ public class GenVdp {
 						}
 					} else {
 						if (horOffset2 >= 0 && horOffset2 < 320) {
+							if (spritesIndex[horOffset2][line] != 0) {
+								scol = 1;
+							}
 							if (priors[horOffset2] == 0 || (priors[horOffset2] == 1 && priority)) {
 								if (priority) {
 									priors[horOffset2] = 1;
 								}
 								
-								color2 = cram[colorIndex2] << 8 | cram[colorIndex2 + 1];
-								
-								int r2 = (color2 >> 1) & 0x7;
-								int g2 = (color2 >> 5) & 0x7;
-								int b2 = (color2 >> 9) & 0x7;
-								
-								int theColor2 = getColour(r2, g2, b2);
-								
-								
-								sprites[horOffset2][line] = theColor2;
+								sprites[horOffset2][line] = colorIndex2 >> 1;
 								spritesIndex[horOffset2][line] = pixel2;
 								spritesPrio[horOffset2][line] = priority;
 							}
@@ -1223,6 +1389,159 @@ public class GenVdp {
 		}
 	}
 
+	//	Interlace mode 2: la linea del campo es la fila (line * 2) + odd de una pantalla de 448, los
+	//	tiles son de 8x16 (64 bytes, indice de 10 bits) y el scroll vertical tambien esta en filas de 448
+	private void renderPlaneInterlaced(int line, boolean isPlaneA) {
+		int[][] plane = isPlaneA ? planeA : planeB;
+		boolean[][] planePrio = isPlaneA ? planePrioA : planePrioB;
+		int[][] planeIndexColor = isPlaneA ? planeIndexColorA : planeIndexColorB;
+		
+		int nameTableLocation;
+		if (isPlaneA) {
+			nameTableLocation = (registers[2] & 0x38) * 0x400;
+		} else {
+			nameTableLocation = (registers[4] & 0x7) * 0x2000;
+		}
+		
+		int reg10 = registers[0x10];
+		int horScrollSize = reg10 & 3;
+		int verScrollSize = (reg10 >> 4) & 3;
+		int horTiles = horScrollSize == 0 ? 32 : (horScrollSize == 1 ? 64 : 128);
+		int verTiles = verScrollSize == 0 ? 32 : (verScrollSize == 1 ? 64 : 128);
+		
+		int limitHorPixels = isH40() ? 320 : 256;
+		
+		int hScrollBase = (registers[0xD] & 0x3F) * 0x400;
+		int regB = registers[0xB];
+		int HS = regB & 0x3;
+		int VS = (regB >> 2) & 0x1;
+		
+		int scrollLine;
+		if (HS == 0b00) {
+			scrollLine = hScrollBase;
+		} else if (HS == 0b10) {
+			scrollLine = hScrollBase + ((line / 8) * 32);
+		} else if (HS == 0b11) {
+			scrollLine = hScrollBase + (line * 4);
+		} else {
+			scrollLine = hScrollBase;
+		}
+		if (!isPlaneA) {
+			scrollLine += 2;
+		}
+		int scrollDataHor = ((vram[scrollLine & 0xFFFF] << 8) | vram[(scrollLine + 1) & 0xFFFF]) & 0x3FF;
+		
+		int vsramOffset = isPlaneA ? 0 : 2;
+		int scrollDataVer = ((vsram[vsramOffset] << 8) | vsram[vsramOffset + 1]) & 0x7FF;
+		
+		int y = (line * 2) + odd;
+		int widthMask = (horTiles * 8) - 1;
+		int heightMask = (verTiles * 16) - 1;
+		
+		for (int pixel = 0; pixel < limitHorPixels; pixel++) {
+			if (!disp) {
+				plane[pixel][line] = 0;
+				planePrio[pixel][line] = false;
+				planeIndexColor[pixel][line] = 0;
+				continue;
+			}
+			
+			if (VS == 1) {	//	2 celdas por columna
+				int column = ((pixel / 16) * 4) + vsramOffset;
+				if (column < 0x50) {
+					scrollDataVer = ((vsram[column] << 8) | vsram[column + 1]) & 0x7FF;
+				}
+			}
+			
+			int px = (pixel - scrollDataHor) & widthMask;
+			int py = (y + scrollDataVer) & heightMask;
+			
+			int loc = (nameTableLocation + ((((py >> 4) * horTiles) + (px >> 3)) * 2)) & 0xFFFF;
+			int nameTable = (vram[loc] << 8) | vram[loc + 1];
+			
+			boolean horFlip = bitTest(nameTable, 11);
+			boolean vertFlip = bitTest(nameTable, 12);
+			int paletteLineIndex = (nameTable >> 13) & 0x3;
+			boolean priority = bitTest(nameTable, 15);
+			
+			int row = py & 0xF;
+			if (vertFlip) {
+				row = 15 - row;
+			}
+			int col = px & 0x7;
+			if (horFlip) {
+				col = 7 - col;
+			}
+			
+			int grab = (((nameTable & 0x3FF) * 0x40) + (row * 4) + (col >> 1)) & 0xFFFF;
+			int data = vram[grab];
+			int pixel1 = (col & 1) == 0 ? (data >> 4) & 0xF : data & 0xF;
+			
+			plane[pixel][line] = (paletteLineIndex * 16) + pixel1;
+			planePrio[pixel][line] = priority;
+			planeIndexColor[pixel][line] = pixel1;
+		}
+	}
+	
+	private void renderSpritesInterlaced(int line) {
+		int[] spritesInLine = spritesPerLine[line];
+		int count = lastIndexes[line];
+		
+		if (lineOverflow[line]) {
+			sovr = 1;
+		}
+		
+		int y = (line * 2) + odd;
+		
+		for (int n = 0; n < count; n++) {
+			int sprite = spritesInLine[n];
+			int attr = satAttr[sprite];
+			
+			int width = satWidth[sprite];
+			int height = satHeight[sprite] * 2;	//	celdas de 16 filas
+			int verCells = height / 16;
+			int pixels = (n == count - 1) ? lastSpriteWidth[line] : width;
+			
+			boolean priority = (attr & 0x8000) != 0;
+			int paletteLine = ((attr >> 13) & 0x3) * 16;
+			boolean verFlip = (attr & 0x1000) != 0;
+			boolean horFlip = (attr & 0x0800) != 0;
+			int pattern = attr & 0x3FF;
+			
+			int row = y - (satYRaw[sprite] - 256);
+			if (verFlip) {
+				row = height - 1 - row;
+			}
+			int verCell = row >> 4;
+			int rowInCell = row & 0xF;
+			
+			int horOffset = satX[sprite];
+			for (int p = 0; p < pixels; p++) {
+				int x = horOffset + p;
+				if (x < 0 || x >= 320) {
+					continue;
+				}
+				int sx = horFlip ? width - 1 - p : p;
+				int cell = pattern + ((sx >> 3) * verCells) + verCell;
+				
+				int grab = ((cell * 0x40) + (rowInCell * 4) + ((sx & 7) >> 1)) & 0xFFFF;
+				int data = vram[grab];
+				int pixel = (sx & 1) == 0 ? (data >> 4) & 0xF : data & 0xF;
+				if (pixel == 0) {
+					continue;
+				}
+				
+				if (spritesIndex[x][line] != 0) {	//	el primero de la lista queda arriba
+					scol = 1;
+					continue;
+				}
+				sprites[x][line] = paletteLine + pixel;
+				spritesIndex[x][line] = pixel;
+				spritesPrio[x][line] = priority;
+			}
+		}
+	}
+
 	//The VDP has a complex system of priorities that can be used to achieve several complex effects. The priority order goes like follows, with the least priority being the first item in the list:
 	//
 	//Backdrop Colour
@@ -1234,7 +1553,12 @@ public class GenVdp {
 	//Plane A with priority bit set
 	//Sprites with priority bit set
 	//Window Plane with priority bit set
-	private void compaginateImage() {
+	void compaginateImage() {
+		//	TODO 256 en modo pal
+		compaginateLines(0, 224);
+	}
+	
+	void compaginateLines(int from, int to) {
 		int regC = registers[0xC];
 		boolean rs0 = bitTest(regC, 7);
 		boolean rs1 = bitTest(regC, 0);
@@ -1245,60 +1569,46 @@ public class GenVdp {
 		} else {
 			limitHorTiles = 32;
 		}
-		//	TODO 256 en modo pal
-		for (int j = 0; j < 224; j++) {
+		
+		int shadowHighlight = bitTest(regC, 3) ? KEY_SH : 0;
+		
+		boolean interlace = isInterlace2();
+		for (int j = from; j < to; j++) {
+			int row = (interlace ? (j * 2) + odd : j) * FRAME_WIDTH;
 			for (int i = 0; i < limitHorTiles * 8; i++) {
-				int backColor = planeBack[i][j];
-				
-				boolean aPrio = planePrioA[i][j];
-				boolean bPrio = planePrioB[i][j];
-				boolean sPrio = spritesPrio[i][j];
-				boolean wPrio = windowPrio[i][j];
-				
-				int aColor = planeIndexColorA[i][j];
-				int bColor = planeIndexColorB[i][j];
-				int wColor = windowIndex[i][j];
-				int spriteIndex = spritesIndex[i][j];
-
-				boolean aDraw = (aColor != 0);
-				boolean bDraw = (bColor != 0);
-				boolean sDraw = (spriteIndex != 0);
-				boolean wDraw = (wColor != 0);
-				
-				boolean W = (wDraw && ((wPrio)	//	TODO comtenmplar que si dibuja W, no dibuje A en ese lugar
-						|| (!wPrio
-								&& (!sDraw || (sDraw && !sPrio))
-								&& (!aDraw || (aDraw && !aPrio))
-								&& (!bDraw || (bDraw && !bPrio))
-							)));
-				
-				int pix = 0;
-				if (W) {
-					pix = window[i][j];
-					window[i][j] = 0;
-					windowIndex[i][j] = 0;
-				} else {
-					boolean S = (sDraw && ((sPrio)
-							|| (!sPrio && !aPrio && !bPrio)
-							|| (!sPrio && aPrio && !aDraw)
-							|| (!bDraw && bPrio && !sPrio && !aPrio)));
-					if (S) {
-						pix = sprites[i][j];
-						sprites[i][j] = 0;
-						spritesIndex[i][j] = 0;
-					} else {
-						boolean A = (aDraw && aPrio)
-								|| (aDraw && ((!bPrio) || (!bDraw)));
-						if (A) {
-							pix = planeA[i][j];
-						} else if (bDraw) {
-							pix = planeB[i][j];
-						} else {
-							pix = backColor;
-						}
-					}
+				int spriteColor = sprites[i][j];
+				
+				int key = shadowHighlight
+						| (planeIndexColorA[i][j] != 0 ? KEY_A_DRAW : 0)
+						| (planePrioA[i][j] ? KEY_A_PRIO : 0)
+						| (planeIndexColorB[i][j] != 0 ? KEY_B_DRAW : 0)
+						| (planePrioB[i][j] ? KEY_B_PRIO : 0)
+						| (spritesIndex[i][j] != 0 ? KEY_S_DRAW : 0)
+						| (spritesPrio[i][j] ? KEY_S_PRIO : 0)
+						| (windowIndex[i][j] != 0 ? KEY_W_DRAW : 0)
+						| (windowPrio[i][j] ? KEY_W_PRIO : 0)
+						| (spriteColor >= 0x3E ? (spriteColor - 0x3D) << 8 : 0);	//	62 highlight, 63 shadow
+				
+				int result = COMPOSITE[key];
+				
+				int pix;
+				switch (result & 0x7) {
+					case LAYER_W:
+						pix = window[i][j];
+						break;
+					case LAYER_S:
+						pix = spriteColor;
+						break;
+					case LAYER_A:
+						pix = planeA[i][j];
+						break;
+					case LAYER_B:
+						pix = planeB[i][j];
+						break;
+					default:
+						pix = planeBack[i][j];
 				}
-				screenData[i][j] = pix;
+				frame[row + i] = (byte) (pix | (result & 0xC0));
 				
 				window[i][j] = 0;
 				windowIndex[i][j] = 0;
@@ -1308,9 +1618,100 @@ public class GenVdp {
 		}
 	}
 	
-	private void renderBack() {
-		int line = this.line;
+	//	Tabla de composicion: para cada combinacion de (se dibuja, prioridad) de A, B, sprite y window,
+	//	si el sprite es un operador de shadow/highlight (colores 62 y 63 de la CRAM) y si el modo
+	//	shadow/highlight esta prendido, que capa queda arriba y con que modo (bits 6-7, los mismos
+	//	del frame). Asi el shadow/highlight no agrega ningun branch por pixel.
+	static final int KEY_A_DRAW = 0x1;
+	static final int KEY_A_PRIO = 0x2;
+	static final int KEY_B_DRAW = 0x4;
+	static final int KEY_B_PRIO = 0x8;
+	static final int KEY_S_DRAW = 0x10;
+	static final int KEY_S_PRIO = 0x20;
+	static final int KEY_W_DRAW = 0x40;
+	static final int KEY_W_PRIO = 0x80;
+	static final int KEY_S_HIGHLIGHT = 0x100;	//	el pixel del sprite es el color 62
+	static final int KEY_S_SHADOW = 0x200;		//	el pixel del sprite es el color 63
+	static final int KEY_SH = 0x400;
+	
+	static final int LAYER_BACK = 0;
+	static final int LAYER_B = 1;
+	static final int LAYER_A = 2;
+	static final int LAYER_S = 3;
+	static final int LAYER_W = 4;
+	
+	static final byte[] COMPOSITE = new byte[0x800];
+	
+	static {
+		for (int key = 0; key < COMPOSITE.length; key++) {
+			COMPOSITE[key] = (byte) composite(key);
+		}
+	}
+	
+	private static int topLayer(boolean aDraw, boolean aPrio, boolean bDraw, boolean bPrio,
+			boolean sDraw, boolean sPrio, boolean wDraw, boolean wPrio) {
+		boolean W = (wDraw && ((wPrio)	//	TODO comtenmplar que si dibuja W, no dibuje A en ese lugar
+				|| (!wPrio
+						&& (!sDraw || (sDraw && !sPrio))
+						&& (!aDraw || (aDraw && !aPrio))
+						&& (!bDraw || (bDraw && !bPrio))
+					)));
+		if (W) {
+			return LAYER_W;
+		}
+		boolean S = (sDraw && ((sPrio)
+				|| (!sPrio && !aPrio && !bPrio)
+				|| (!sPrio && aPrio && !aDraw)
+				|| (!bDraw && bPrio && !sPrio && !aPrio)));
+		if (S) {
+			return LAYER_S;
+		}
+		boolean A = (aDraw && aPrio)
+				|| (aDraw && ((!bPrio) || (!bDraw)));
+		if (A) {
+			return LAYER_A;
+		} else if (bDraw) {
+			return LAYER_B;
+		}
+		return LAYER_BACK;
+	}
+	
+	private static int composite(int key) {
+		boolean aDraw = (key & KEY_A_DRAW) != 0;
+		boolean aPrio = (key & KEY_A_PRIO) != 0;
+		boolean bDraw = (key & KEY_B_DRAW) != 0;
+		boolean bPrio = (key & KEY_B_PRIO) != 0;
+		boolean sDraw = (key & KEY_S_DRAW) != 0;
+		boolean sPrio = (key & KEY_S_PRIO) != 0;
+		boolean wDraw = (key & KEY_W_DRAW) != 0;
+		boolean wPrio = (key & KEY_W_PRIO) != 0;
+		boolean sh = (key & KEY_SH) != 0;
+		
+		int layer = topLayer(aDraw, aPrio, bDraw, bPrio, sDraw, sPrio, wDraw, wPrio);
+		if (!sh) {
+			return layer;
+		}
 		
+		//	los planos con prioridad (y el fondo debajo) se ven normales, si no quedan en sombra
+		int mode = (aPrio || bPrio || (wDraw && wPrio)) ? 0 : MODE_SHADOW;
+		
+		if (layer == LAYER_S && (key & (KEY_S_HIGHLIGHT | KEY_S_SHADOW)) != 0) {
+			//	62 y 63 no se dibujan: iluminan (62) u oscurecen (63) lo que hay abajo
+			int below = topLayer(aDraw, aPrio, bDraw, bPrio, false, false, wDraw, wPrio);
+			if ((key & KEY_S_HIGHLIGHT) != 0) {
+				mode = (mode == MODE_SHADOW) ? 0 : MODE_HIGHLIGHT;
+			} else {
+				mode = MODE_SHADOW;
+			}
+			return below | mode;
+		}
+		if (layer == LAYER_S && sPrio) {
+			mode = 0;
+		}
+		return layer | mode;
+	}
+	
+	void renderBack(int line) {
 		int regC = registers[0xC];
 		boolean rs0 = bitTest(regC, 7);
 		boolean rs1 = bitTest(regC, 0);
@@ -1324,21 +1725,11 @@ public class GenVdp {
 		
 		int backLine = (registers[7] >> 4) & 0x3;
 		int backEntry = (registers[7]) & 0xF;
-		int backIndex = (backLine * 32) + (backEntry * 2);
-		int backColor = cram[backIndex] << 8 | cram[backIndex + 1];
-		
-		int r = (backColor >> 1) & 0x7;
-		int g = (backColor >> 5) & 0x7;
-		int b = (backColor >> 9) & 0x7;
-		
-		backColor = getColour(r, g, b);
+		int backColor = (backLine * 16) + backEntry;
 		
+		//	con el display apagado el VDP muestra el color de fondo
 		for (int pixel = 0; pixel < (limitHorTiles * 8); pixel++) {
-			if (!disp) {
-				planeBack[pixel][line] = 0;
-			} else {
-				planeBack[pixel][line] = backColor;
-			}
+			planeBack[pixel][line] = backColor;
 		}
 	}
 	
@@ -1347,14 +1738,12 @@ public class GenVdp {
 //x	SA16	SA15	SA14	SA13	x	x	x
 //	SA15-SA13 defines the upper three bits of the VRAM location of Plane A's nametable. This value is effectively the address divided by $400; however, the low three bits are ignored, so the Plane A nametable has to be located at a VRAM address that's a multiple of $2000. For example, if the Plane A nametable was to be located at $C000 in VRAM, it would be divided by $400, which results in $30, the proper value for this register.
 //	SA16 is only valid if 128 KB mode is enabled, and allows for rebasing the Plane A nametable to the second 64 KB of VRAM.
-	private void renderPlaneA() {
+	void renderPlaneA(int line) {
 		int nameTableLocation = registers[2] & 0x38;	// bit 6 para modo extendido de vram, no lo emulo
 		nameTableLocation *= 0x400;
 		
 		int tileLocator = nameTableLocation;
 
-		int line = this.line;
-		
 		int reg10 = registers[0x10];
 		int horScrollSize = reg10 & 3;
 		int verScrollSize = (reg10 >> 4) & 3;
@@ -1414,7 +1803,7 @@ public class GenVdp {
 			}
 			
 		} else {	// 16 columns (2 tiles) scrolling
-			System.out.println();
+			//	TODO no implementado, queda sin scroll vertical (no se avisa: pasaria en cada linea)
 		}
 		
 		long scrollDataHor = 0;
@@ -1601,15 +1990,7 @@ public class GenVdp {
 				
 				int colorIndex1 = paletteLine + (pixel1 * 2);
 				
-				int color1 = cram[colorIndex1] << 8 | cram[colorIndex1 + 1];
-				
-				int r = (color1 >> 1) & 0x7;
-				int g = (color1 >> 5) & 0x7;
-				int b = (color1 >> 9) & 0x7;
-				
-				int theColor1 = getColour(r, g, b);
-				
-				planeA[pixel][line] = theColor1;
+				planeA[pixel][line] = colorIndex1 >> 1;
 				planePrioA[pixel][line] = priority;
 				planeIndexColorA[pixel][line] = pixel1;
 			}
@@ -1622,7 +2003,7 @@ public class GenVdp {
 //	x	x	x	x	SB16	SB15	SB14	SB13
 //	SB15-SB13 defines the upper three bits of the VRAM location of Plane B's nametable. This value is effectively the address divided by $2000, meaning that the Plane B nametable has to be located at a VRAM address that's a multiple of $2000. For example, if the Plane A nametable was to be located at $E000 in VRAM, it would be divided by $2000, which results in $07, the proper value for this register.
 //	SB16 is only valid if 128 KB mode is enabled, and allows for rebasing the Plane B nametable to the second 64 KB of VRAM.
-	private void renderPlaneB() {
+	void renderPlaneB(int line) {
 		int nameTableLocation = (registers[4] & 0x7) << 3;	// bit 3 para modo extendido de vram, no lo emulo
 		nameTableLocation *= 0x400;
 		
@@ -1652,8 +2033,6 @@ public class GenVdp {
 			limitHorTiles = 32;
 		}
 		
-		int line = this.line;
-		
 		int regD = registers[0xD];
 		int hScrollBase = regD & 0x3F;	//	bit 6 = mode 128k
 		hScrollBase *= 0x400;
@@ -1690,7 +2069,7 @@ public class GenVdp {
 			
 		} else {	// 16 columns (2 tiles) scrolling
 //			throw new RuntimeException();
-			System.out.println("16 vert scroll");
+			//	TODO no implementado, queda sin scroll vertical (no se avisa: pasaria en cada linea)
 		}
 		
 		long scrollDataHor = 0;
@@ -1876,15 +2255,8 @@ public class GenVdp {
 				}
 				
 				int colorIndex1 = paletteLine + (pixel1 * 2);
-				int color1 = cram[colorIndex1] << 8 | cram[colorIndex1 + 1];
-				
-				int r = (color1 >> 1) & 0x7;
-				int g = (color1 >> 5) & 0x7;
-				int b = (color1 >> 9) & 0x7;
 				
-				int theColor1 = getColour(r, g, b);
-				
-				planeB[pixel][line] = theColor1;
+				planeB[pixel][line] = colorIndex1 >> 1;
 				planePrioB[pixel][line] = priority;
 				planeIndexColorB[pixel][line] = pixel1;
 			}
@@ -1896,14 +2268,14 @@ public class GenVdp {
 	// address that's a multiple of $800. For example, if the Window nametable
 	// was to be located at $F000 in VRAM, it would be divided by $400, which
 	// results in $3C, the proper value for this register.
-	private void renderWindow() {
+	void renderWindow(int line) {
+		boolean interlace = isInterlace2();
 		int reg12 = registers[0x12];
 		int windowVert = reg12 & 0x1F;
 		boolean down = ((reg12 & 0x80) == 0x80) ? true : false;
 		
 		if (windowVert != 0) {
 
-			int line = this.line;
 			int vertTile = (line / 8);
 			
 			int vertLimit = (windowVert * 8);
@@ -1971,6 +2343,11 @@ public class GenVdp {
 				} else {
 					pointVert = filas;
 				}
+				if (interlace) {	//	tiles de 8x16, 64 bytes
+					tileIndex = (nameTable & 0x3FF) * 0x40;
+					filas = ((line % 8) * 2) + odd;
+					pointVert = vertFlip ? 15 - filas : filas;
+				}
 				for (int k = 0; k < 4; k++) {
 					int point;
 					if (horFlip) {
@@ -2006,22 +2383,8 @@ public class GenVdp {
 						int colorIndex1 = paletteLine + (pixel1 * 2);
 						int colorIndex2 = paletteLine + (pixel2 * 2);
 						
-						int color1 = cram[colorIndex1] << 8 | cram[colorIndex1 + 1];
-						int color2 = cram[colorIndex2] << 8 | cram[colorIndex2 + 1];
-						
-						int r = (color1 >> 1) & 0x7;
-						int g = (color1 >> 5) & 0x7;
-						int b = (color1 >> 9) & 0x7;
-						
-						int r2 = (color2 >> 1) & 0x7;
-						int g2 = (color2 >> 5) & 0x7;
-						int b2 = (color2 >> 9) & 0x7;
-						
-						int theColor1 = getColour(r, g, b);
-						int theColor2 = getColour(r2, g2, b2);
-						
-						window[po][line] = theColor1;
-						window[po + 1][line] = theColor2;
+						window[po][line] = colorIndex1 >> 1;
+						window[po + 1][line] = colorIndex2 >> 1;
 						
 						windowPrio[po][line] = priority;
 						windowPrio[po + 1][line] = priority;
@@ -2107,123 +2470,35 @@ public class GenVdp {
 	}
 
 	private long readVram(Size size) {
-		int index = nextFIFOReadEntry;
-		int address = addressPort;
+		int address = portAddress & 0xFFFE;
 		
-		long first =  all >> 16;
-		long second = all & 0xFFFF;
+		long data = (vram[address] << 8) | vram[address + 1];
 		
-		int code = (int) ((first >> 14) | (((second >> 4) & 0xF) << 2));
-		int addr = (int) ((first & 0x3FFF) | ((second & 0x3) << 14));
+		portAddress = (portAddress + autoIncrementData) & 0xFFFF;
 		
-		int offset = addr + autoIncrementTotal;
-		
-		long data1 = vram[offset];
-		long data2 = vram[offset + 1];
-		
-		long data = ((data1 << 8) | (data2));
-		
-		System.out.println("addr: " + Integer.toHexString(offset) + "-" + Integer.toHexString(offset + 1) + ": "
-				+ Integer.toHexString((int) data));
-		
-//		fifoAddress[index] = offset;
-//		fifoCode[index] = code;
-//		fifoData[index] = word;
-		
-//		if (incrementAddr) {
-			int incrementOffset = autoIncrementTotal + autoIncrementData;
-			autoIncrementTotal = incrementOffset;
-//		}
-
 		return data;
-		
-//		address = address + incrementOffset;	// FIXME wrap
-//		offset = offset + incrementOffset;
-//		index = (index + 1) % 4;
-//		
-//		nextFIFOReadEntry = index;
-//		nextFIFOWriteEntry = index;
 	}
 	
 	private long readCram(Size size) {
-		int index = nextFIFOReadEntry;
-		int address = addressPort;
-		
-		long first =  all >> 16;
-		long second = all & 0xFFFF;
+		int address = portAddress & 0x7E;
 		
-		int code = (int) ((first >> 14) | (((second >> 4) & 0xF) << 2));
-		int addr = (int) ((first & 0x3FFF) | ((second & 0x3) << 14));
+		long data = ((cram[address] << 8) | cram[address + 1]) & 0xEEE;
 		
-		int offset = addr + autoIncrementTotal;
+		portAddress = (portAddress + autoIncrementData) & 0xFFFF;
 		
-		if (offset > 0x80) {
-			return 0;
-		}
-		
-		long data1 = cram[offset] & 0xEEE;
-		long data2 = cram[offset + 1] & 0xEEE;
-		
-		long data = ((data1 << 8) | (data2));
-		
-		System.out.println("addr: " + Integer.toHexString(offset) + "-" + Integer.toHexString(offset + 1) + ": "
-				+ Integer.toHexString((int) data));
-		
-//		fifoAddress[index] = offset;
-//		fifoCode[index] = code;
-//		fifoData[index] = word;
-		
-//		if (incrementAddr) {
-			int incrementOffset = autoIncrementTotal + autoIncrementData;
-			autoIncrementTotal = incrementOffset;
-//		}
-
 		return data;
-		
-//		address = address + incrementOffset;	// FIXME wrap
-//		offset = offset + incrementOffset;
-//		index = (index + 1) % 4;
-//		
-//		nextFIFOReadEntry = index;
-//		nextFIFOWriteEntry = index;
 	}
 	
 	private long readVsram(Size size) {
-		int index = nextFIFOReadEntry;
-		int address = addressPort;
+		int address = portAddress & 0x7E;
 		
-		long first =  all >> 16;
-		long second = all & 0xFFFF;
-		
-		int code = (int) ((first >> 14) | (((second >> 4) & 0xF) << 2));
-		int addr = (int) ((first & 0x3FFF) | ((second & 0x3) << 14));
-		
-		int offset = addr + autoIncrementTotal;
-		
-		long data1 = vsram[offset] & 0xEEE;
-		long data2 = vsram[offset + 1] & 0xEEE;
-		
-		long data = ((data1 << 8) | (data2));
-		
-		System.out.println("addr: " + Integer.toHexString(offset) + "-" + Integer.toHexString(offset + 1) + ": "
-				+ Integer.toHexString((int) data));
+		long data = 0;
+		if (address < 0x50) {
+			data = ((vsram[address] << 8) | vsram[address + 1]) & 0x7FF;
+		}
 		
-//		fifoAddress[index] = offset;
-//		fifoCode[index] = code;
-//		fifoData[index] = word;
+		portAddress = (portAddress + autoIncrementData) & 0xFFFF;
 		
-//		if (incrementAddr) {
-			int incrementOffset = autoIncrementTotal + autoIncrementData;
-			autoIncrementTotal = incrementOffset;
-//		}
-
 		return data;
-		
-//		address = address + incrementOffset;	// FIXME wrap
-//		offset = offset + incrementOffset;
-//		index = (index + 1) % 4;
-//		
-//		nextFIFOReadEntry = index;
-//		nextFIFOWriteEntry = index;
 	}
 }
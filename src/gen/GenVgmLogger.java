@@ -0,0 +1,296 @@
+package gen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+//	Graba un VGM (1.50) con todas las escrituras al YM2612 y al PSG que pasan por Genefusto.ymWrite y
+//	psgWrite, con las esperas sacadas del tiempo emulado (master clock pasado a muestras de 44100 Hz).
+//	El DAC (registro 0x2A) no va como escritura comun de 3 bytes: los datos se juntan en el banco PCM
+//	del archivo (un data block 0x67 al principio) y cada escritura es un solo comando 0x8n, que ademas
+//	lleva incluida una espera de hasta 15 muestras.
+//	Como el data block va antes que los comandos y no se sabe cuanto mide hasta el final, comandos y PCM
+//	se escriben en dos archivos temporales que se juntan al cerrar.
+//	La grabacion puede empezar en medio del juego, asi que el archivo arranca escribiendo el estado
+//	que ya tenian los chips: los registros del YM2612 y los del PSG (ver writeState).
+//	El thread de emulacion solo escribe en ByteBuffers directos; cuando uno se llena lo escribe en
+//	disco un thread aparte y se agarra otro libre (o uno nuevo), asi grabar nunca frena la emulacion.
+//	https://vgmrips.net/wiki/VGM_Specification
+public class GenVgmLogger {
+
+	static final int VGM_RATE = 44100;
+	static final int HEADER = 0x40;
+	static final int BUFFER = 64 * 1024;
+
+	private final File file;
+	private final Path commandsPath;
+	private final Path pcmPath;
+	private final FileChannel commands;
+	private final FileChannel pcm;
+
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "Genefusto VGM writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+	private ByteBuffer commandBuffer;
+	private ByteBuffer pcmBuffer;
+	private volatile IOException error;
+
+	private final long startClock;
+	private long writtenSamples;	//	muestras de espera ya escritas
+	private long pcmBytes;
+	private int[] address = new int[2];
+	private boolean dacPending;		//	hay un 0x8n sin escribir, esperando saber cuanto esperar despues
+
+	GenVgmLogger(File file, long clock, GenYm2612 ym, GenPsg psg) throws IOException {
+		this.file = file;
+		this.startClock = clock;
+		commandsPath = Files.createTempFile("genefusto", ".vgmcmd");
+		pcmPath = Files.createTempFile("genefusto", ".vgmpcm");
+		commands = FileChannel.open(commandsPath, StandardOpenOption.WRITE);
+		pcm = FileChannel.open(pcmPath, StandardOpenOption.WRITE);
+		commandBuffer = take();
+		pcmBuffer = take();
+		writeState(ym, psg);
+	}
+
+	//	lo que se escribio antes de empezar, sin espera. El YM sale de su copia de los registros: el
+	//	alto de la frecuencia (A4-A6, AC-AE) antes que el bajo que lo aplica, las teclas al final.
+	//	El PSG escribe cada registro y al final vuelve a latchear el que estaba, por si el proximo
+	//	byte es solo de datos
+	private void writeState(GenYm2612 ym, GenPsg psg) {
+		int[][] r = ym.registers;
+		writeRegister(0, 0x22, r[0][0x22]);			//	LFO
+		writeRegister(0, 0x27, r[0][0x27] & 0xC0);	//	modo del canal 3, sin los reset de los timers
+		writeRegister(0, 0x2B, r[0][0x2B]);			//	DAC
+		writeRegister(0, 0x2A, r[0][0x2A]);
+		for (int part = 0; part < 2; part++) {
+			for (int reg = 0x30; reg < 0xA0; reg++) {
+				if ((reg & 3) != 3) {
+					writeRegister(part, reg, r[part][reg]);
+				}
+			}
+			for (int c = 0; c < 3; c++) {
+				writeRegister(part, 0xA4 + c, r[part][0xA4 + c]);
+				writeRegister(part, 0xA0 + c, r[part][0xA0 + c]);
+			}
+			for (int c = 0; c < 3; c++) {
+				writeRegister(part, 0xAC + c, r[part][0xAC + c]);
+				writeRegister(part, 0xA8 + c, r[part][0xA8 + c]);
+			}
+			for (int c = 0; c < 3; c++) {
+				writeRegister(part, 0xB0 + c, r[part][0xB0 + c]);
+				writeRegister(part, 0xB4 + c, r[part][0xB4 + c]);
+			}
+		}
+		for (int ch : new int[] { 0, 1, 2, 4, 5, 6 }) {
+			writeRegister(0, 0x28, (ym.keys[ch] & 0xF0) | ch);
+		}
+		address[0] = ym.address[0];
+		address[1] = ym.address[1];
+
+		for (int c = 0; c < 3; c++) {
+			psgData(0x80 | (c << 5) | (psg.tone[c] & 0x0F));
+			psgData(psg.tone[c] >> 4);
+			psgData(0x90 | (c << 5) | psg.attenuation[c]);
+		}
+		psgData(0xE0 | psg.noise);
+		psgData(0xF0 | psg.attenuation[3]);
+		int channel = psg.latch >> 1;
+		int low;
+		if ((psg.latch & 1) != 0) {
+			low = psg.attenuation[channel];
+		} else {
+			low = channel < 3 ? psg.tone[channel] & 0x0F : psg.noise;
+		}
+		psgData(0x80 | (psg.latch << 4) | low);
+	}
+
+	private void writeRegister(int part, int reg, int data) {
+		ByteBuffer b = commands(3);
+		b.put((byte) (part == 0 ? 0x52 : 0x53));
+		b.put((byte) reg);
+		b.put((byte) data);
+	}
+
+	private void psgData(int data) {
+		ByteBuffer b = commands(2);
+		b.put((byte) 0x50);
+		b.put((byte) data);
+	}
+
+	//	puertos 0-3 como GenYm2612.write, clock en ciclos del master clock (Genefusto.soundClock)
+	void ymWrite(long clock, int port, int data) {
+		int part = port >> 1;
+		if ((port & 1) == 0) {
+			address[part] = data;
+			return;
+		}
+		if (part == 0 && address[0] == 0x2A) {
+			dacWrite(clock, data);
+			return;
+		}
+		waitUntil(clock);
+		writeRegister(part, address[part], data);
+	}
+
+	void psgWrite(long clock, int data) {
+		waitUntil(clock);
+		psgData(data);
+	}
+
+	private void dacWrite(long clock, int data) {
+		waitUntil(clock);
+		if (pcmBytes == 0) {
+			ByteBuffer b = commands(5);
+			b.put((byte) 0xE0);		//	seek al principio del banco PCM
+			b.putInt(0);
+		}
+		if (!pcmBuffer.hasRemaining()) {
+			submit(pcmBuffer, pcm);
+			pcmBuffer = take();
+		}
+		pcmBuffer.put((byte) data);
+		pcmBytes++;
+		dacPending = true;
+	}
+
+	//	escribe la espera desde la ultima escritura; si fue del DAC, hasta 15 muestras van en su 0x8n
+	private void waitUntil(long clock) {
+		long target = ((clock - startClock) * VGM_RATE) / GenSound.MASTER_CLOCK;
+		long wait = Math.max(0, target - writtenSamples);
+		if (dacPending) {
+			int n = (int) Math.min(wait, 15);
+			commands(1).put((byte) (0x80 | n));
+			wait -= n;
+			writtenSamples += n;
+			dacPending = false;
+		}
+		while (wait > 0) {
+			ByteBuffer b = commands(3);
+			if (wait <= 16) {
+				b.put((byte) (0x70 | (wait - 1)));
+				writtenSamples += wait;
+				wait = 0;
+			} else if (wait == 735 || wait == 882) {
+				b.put((byte) (wait == 735 ? 0x62 : 0x63));
+				writtenSamples += wait;
+				wait = 0;
+			} else {
+				int n = (int) Math.min(wait, 0xFFFF);
+				b.put((byte) 0x61);
+				b.putShort((short) n);
+				writtenSamples += n;
+				wait -= n;
+			}
+		}
+	}
+
+	private ByteBuffer commands(int bytes) {
+		if (commandBuffer.remaining() < bytes) {
+			submit(commandBuffer, commands);
+			commandBuffer = take();
+		}
+		return commandBuffer;
+	}
+
+	private ByteBuffer take() {
+		ByteBuffer b = free.poll();
+		if (b == null) {
+			b = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		b.clear();
+		return b;
+	}
+
+	private void submit(ByteBuffer b, FileChannel channel) {
+		b.flip();
+		writer.execute(() -> {
+			try {
+				while (b.hasRemaining()) {
+					channel.write(b);
+				}
+			} catch (IOException e) {
+				error = e;
+			}
+			free.add(b);
+		});
+	}
+
+	//	termina en clock, espera al thread de escritura y arma el archivo final
+	void close(long clock) throws IOException {
+		waitUntil(clock);
+		commands(1).put((byte) 0x66);
+		submit(commandBuffer, commands);
+		submit(pcmBuffer, pcm);
+		writer.shutdown();
+		try {
+			writer.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		commands.close();
+		pcm.close();
+		if (error != null) {
+			throw error;
+		}
+
+		long commandBytes = Files.size(commandsPath);
+		long blockBytes = pcmBytes > 0 ? 7 + pcmBytes : 0;
+		long total = HEADER + blockBytes + commandBytes;
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER + 7).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(0x00, 0x206D6756);			//	"Vgm "
+		header.putInt(0x04, (int) (total - 0x04));	//	EOF offset
+		header.putInt(0x08, 0x150);					//	version
+		header.putInt(0x0C, GenPsg.CLOCK);
+		header.putInt(0x18, (int) writtenSamples);
+		header.putInt(0x24, 60);
+		header.putShort(0x28, (short) 0x0009);		//	taps del LFSR de Sega
+		header.put(0x2A, (byte) 16);				//	ancho del LFSR
+		header.putInt(0x2C, GenYm2612.CLOCK);
+		header.putInt(0x34, HEADER - 0x34);			//	offset de los datos
+		header.position(HEADER);
+		if (pcmBytes > 0) {
+			header.put((byte) 0x67);
+			header.put((byte) 0x66);
+			header.put((byte) 0x00);				//	PCM del YM2612
+			header.putInt((int) pcmBytes);
+		}
+		header.flip();
+
+		try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (header.hasRemaining()) {
+				out.write(header);
+			}
+			append(out, pcmPath);
+			append(out, commandsPath);
+		}
+		Files.delete(commandsPath);
+		Files.delete(pcmPath);
+	}
+
+	private static void append(FileChannel out, Path path) throws IOException {
+		try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+			long position = 0;
+			long size = in.size();
+			while (position < size) {
+				position += in.transferTo(position, size - position, out);
+			}
+		}
+	}
+
+}
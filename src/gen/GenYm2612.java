@@ -0,0 +1,922 @@
+package gen;
+
+import java.util.Arrays;
+
+//	YM2612 (OPN2): 6 canales FM de 4 operadores, LFO, SSG-EG, el DAC en el canal 6 y los timers A/B.
+//	La sintesis es por tablas como en el chip real: el seno esta guardado como atenuacion logaritmica
+//	y la salida sale de una tabla de exponenciales, asi cada operador es una suma y dos lecturas.
+//	El render es por bloques: primero se calcula para todo el bloque el LFO y los ticks del
+//	envelope (cada 3 muestras), y despues cada canal recorre el bloque entero con su estado en
+//	variables locales. Las tablas y el generador de envelope siguen al core de MAME (fm.c).
+//	Las muestras salen a la frecuencia del chip (reloj / 144, ~53 kHz), estereo intercaladas.
+//	http://md.squee.co/YM2612
+public class GenYm2612 {
+
+	static final int CLOCK = 7670453;		//	el del 68k en NTSC
+	static final int RATE = CLOCK / 144;	//	muestras por segundo
+
+	static final int BLOCK = 256;
+
+	private static final int FREQ_SH = 16;
+	private static final int FREQ_MASK = (1 << FREQ_SH) - 1;
+
+	private static final int ENV_BITS = 10;
+	private static final int MAX_ATT = (1 << ENV_BITS) - 1;
+
+	private static final int SIN_LEN = 1024;
+	private static final int SIN_MASK = SIN_LEN - 1;
+
+	private static final int TL_RES_LEN = 256;
+	private static final int TL_TAB_LEN = 13 * 2 * TL_RES_LEN;
+	private static final int ENV_QUIET = TL_TAB_LEN >> 3;
+
+	private static final int EG_OFF = 0;
+	private static final int EG_REL = 1;
+	private static final int EG_SUS = 2;
+	private static final int EG_DEC = 3;
+	private static final int EG_ATT = 4;
+
+	private static final int RATE_STEPS = 8;
+
+	private static final int[] TL_TAB = new int[TL_TAB_LEN];
+	private static final int[] SIN_TAB = new int[SIN_LEN];
+	private static final int[] FN_TABLE = new int[4096];
+	private static final int FN_MAX = 4094 << 11;
+	private static final int[][] DT_TAB = new int[8][32];
+	private static final int[] LFO_PM_TABLE = new int[128 * 8 * 32];
+
+	private static final int[] FK_TABLE = { 0, 0, 0, 0, 0, 0, 0, 1, 2, 3, 3, 3, 3, 3, 3, 3 };
+	private static final int[] LFO_SAMPLES_PER_STEP = { 108, 77, 71, 67, 62, 44, 8, 5 };
+	private static final int[] LFO_AMS_SHIFT = { 8, 3, 1, 0 };
+	private static final int[] SL_TABLE = new int[16];
+
+	private static final int[] DT_BASE = {
+		0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+		0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+
+		0, 0, 0, 0, 1, 1, 1, 1, 1, 1, 1, 1, 2, 2, 2, 2,
+		2, 3, 3, 3, 4, 4, 4, 5, 5, 6, 6, 7, 8, 8, 8, 8,
+
+		1, 1, 1, 1, 2, 2, 2, 2, 2, 3, 3, 3, 4, 4, 4, 5,
+		5, 6, 6, 7, 8, 8, 9, 10, 11, 12, 13, 14, 16, 16, 16, 16,
+
+		2, 2, 2, 2, 2, 3, 3, 3, 4, 4, 4, 5, 5, 6, 6, 7,
+		8, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 20, 22, 22, 22, 22
+	};
+
+	private static final int[] EG_INC = {
+		0, 1, 0, 1, 0, 1, 0, 1,		//	rates 0-11, incrementan 0 o 1
+		0, 1, 0, 1, 1, 1, 0, 1,
+		0, 1, 1, 1, 0, 1, 1, 1,
+		0, 1, 1, 1, 1, 1, 1, 1,
+		1, 1, 1, 1, 1, 1, 1, 1,		//	rate 12
+		1, 1, 1, 2, 1, 1, 1, 2,
+		1, 2, 1, 2, 1, 2, 1, 2,
+		1, 2, 2, 2, 1, 2, 2, 2,
+		2, 2, 2, 2, 2, 2, 2, 2,		//	rate 13
+		2, 2, 2, 4, 2, 2, 2, 4,
+		2, 4, 2, 4, 2, 4, 2, 4,
+		2, 4, 4, 4, 2, 4, 4, 4,
+		4, 4, 4, 4, 4, 4, 4, 4,		//	rate 14
+		4, 4, 4, 8, 4, 4, 4, 8,
+		4, 8, 4, 8, 4, 8, 4, 8,
+		4, 8, 8, 8, 4, 8, 8, 8,
+		8, 8, 8, 8, 8, 8, 8, 8,		//	rate 15
+		16, 16, 16, 16, 16, 16, 16, 16,	//	attack instantaneo
+		0, 0, 0, 0, 0, 0, 0, 0		//	rate infinito
+	};
+
+	private static final int[] EG_RATE_SELECT = new int[128];
+	private static final int[] EG_RATE_SHIFT = new int[128];
+
+	static {
+		for (int x = 0; x < TL_RES_LEN; x++) {
+			double m = Math.floor((1 << 16) / Math.pow(2, (x + 1) * (0.125 / 4.0) / 8.0));
+			int n = (int) m;
+			n >>= 4;
+			n = (n & 1) != 0 ? (n >> 1) + 1 : n >> 1;
+			n <<= 2;
+			for (int i = 0; i < 13; i++) {
+				TL_TAB[(x * 2) + (i * 2 * TL_RES_LEN)] = n >> i;
+				TL_TAB[(x * 2) + 1 + (i * 2 * TL_RES_LEN)] = -(n >> i);
+			}
+		}
+
+		for (int i = 0; i < SIN_LEN; i++) {
+			double m = Math.sin(((i * 2) + 1) * Math.PI / SIN_LEN);
+			double o = 8 * Math.log(1.0 / Math.abs(m)) / Math.log(2.0);
+			o = o / (0.125 / 4);
+			int n = (int) (2.0 * o);
+			n = (n & 1) != 0 ? (n >> 1) + 1 : n >> 1;
+			SIN_TAB[i] = (n * 2) + (m >= 0.0 ? 0 : 1);
+		}
+
+		for (int i = 0; i < FN_TABLE.length; i++) {
+			FN_TABLE[i] = i << 11;
+		}
+
+		for (int d = 0; d < 4; d++) {
+			for (int i = 0; i < 32; i++) {
+				DT_TAB[d][i] = DT_BASE[(d * 32) + i] * 64;
+				DT_TAB[d + 4][i] = -DT_TAB[d][i];
+			}
+		}
+
+		for (int i = 0; i < 16; i++) {
+			SL_TABLE[i] = (i == 15 ? 31 : i) * 32;
+		}
+
+		for (int i = 0; i < 128; i++) {
+			if (i < 32) {
+				EG_RATE_SELECT[i] = 18 * RATE_STEPS;	//	rates infinitos
+				EG_RATE_SHIFT[i] = 0;
+			} else if (i < 32 + 48) {
+				EG_RATE_SELECT[i] = ((i - 32) & 3) * RATE_STEPS;
+				EG_RATE_SHIFT[i] = 11 - ((i - 32) >> 2);
+			} else if (i < 32 + 60) {
+				EG_RATE_SELECT[i] = (4 + (i - 32 - 48)) * RATE_STEPS;
+				EG_RATE_SHIFT[i] = 0;
+			} else {
+				EG_RATE_SELECT[i] = 16 * RATE_STEPS;
+				EG_RATE_SHIFT[i] = 0;
+			}
+		}
+
+		//	desplazamiento de la frecuencia por el LFO segun los bits 4-10 del fnum, la profundidad y
+		//	el paso del LFO; cada bit del fnum aporta una de estas filas, escaladas segun bit + depth
+		int[][] levels = {
+			{ 0, 0, 0, 0, 0, 0, 0, 0 },
+			{ 0, 0, 0, 0, 1, 1, 1, 1 },
+			{ 0, 0, 1, 1, 2, 2, 2, 3 },
+			{ 0, 0, 2, 3, 4, 4, 5, 6 },
+		};
+		for (int depth = 0; depth < 8; depth++) {
+			for (int fnum = 0; fnum < 128; fnum++) {
+				for (int step = 0; step < 8; step++) {
+					int value = 0;
+					for (int bit = 0; bit < 7; bit++) {
+						if ((fnum & (1 << bit)) != 0) {
+							int level = depth + bit - 6;
+							if (level > 0) {
+								value += level <= 3 ? levels[level][step] : levels[3][step] << (level - 3);
+							}
+						}
+					}
+					int base = (fnum * 32 * 8) + (depth * 32);
+					LFO_PM_TABLE[base + step] = value;
+					LFO_PM_TABLE[base + (step ^ 7) + 8] = value;
+					LFO_PM_TABLE[base + step + 16] = -value;
+					LFO_PM_TABLE[base + (step ^ 7) + 24] = -value;
+				}
+			}
+		}
+	}
+
+	//	operadores: indice canal * 4 + slot, en el orden de los registros (op1, op3, op2, op4)
+	int[] dt = new int[24];
+	int[] mul = new int[24];		//	x2, 0 es 0.5
+	int[] tl = new int[24];
+	int[] ks = new int[24];			//	shift del key code
+	int[] ar = new int[24];
+	int[] d1r = new int[24];
+	int[] d2r = new int[24];
+	int[] rr = new int[24];
+	int[] sl = new int[24];
+	int[] ssg = new int[24];
+	int[] ssgn = new int[24];
+	int[] amMask = new int[24];
+	boolean[] key = new boolean[24];
+
+	int[] ksr = new int[24];
+	int[] egShAr = new int[24];
+	int[] egSelAr = new int[24];
+	int[] egShD1r = new int[24];
+	int[] egSelD1r = new int[24];
+	int[] egShD2r = new int[24];
+	int[] egSelD2r = new int[24];
+	int[] egShRr = new int[24];
+	int[] egSelRr = new int[24];
+
+	int[] state = new int[24];
+	int[] volume = new int[24];
+	int[] volOut = new int[24];		//	atenuacion con TL y la inversion del SSG-EG
+	int[] phase = new int[24];
+	int[] incr = new int[24];
+	int[] slotBlockFnum = new int[24];
+	int[] slotKcode = new int[24];
+	int[] slotFc = new int[24];
+
+	//	canales
+	int[] algo = new int[6];
+	int[] fb = new int[6];			//	shift del feedback, 0 sin feedback
+	int[] blockFnum = new int[6];
+	int[] ams = new int[6];
+	int[] pms = new int[6];
+	int[] panLeft = new int[6];		//	mascaras 0 o -1
+	int[] panRight = new int[6];
+	int[] op1Out0 = new int[6];
+	int[] op1Out1 = new int[6];
+	boolean[] dirty = new boolean[6];
+
+	int[] fnHigh = new int[2];		//	latch del registro A4 por parte
+	int[] sl3BlockFnum = new int[3];	//	frecuencias de los operadores del canal 3 en modo especial
+	int sl3FnHigh;
+
+	int[] address = new int[2];
+	int[][] registers = new int[2][0x100];	//	ultimo valor escrito en cada registro (estado inicial del VGM)
+	int[] keys = new int[8];				//	ultimo 0x28 de cada canal (bits 0-2 como en el registro)
+
+	int lfoCounter;
+	int lfoStep;					//	0 apagado
+	int lfoCnt;
+
+	int egTimer;
+	int egCnt = 1;
+
+	int mode;						//	registro 0x27
+	int timerA;
+	int timerB;
+	int timerACount;
+	int timerBCount;
+	int status;
+
+	boolean dacEnabled;
+	int dacOut;
+
+	//	por muestra del bloque
+	private int[] blockEg = new int[BLOCK];		//	valor del contador del envelope, 0 si no hay tick
+	private int[] blockAm = new int[BLOCK];
+	private int[] blockPm = new int[BLOCK];
+
+	public GenYm2612() {
+		reset();
+	}
+
+	void reset() {
+		for (int s = 0; s < 24; s++) {
+			mul[s] = 1;
+			ks[s] = 3;
+			state[s] = EG_OFF;
+			volume[s] = MAX_ATT;
+			volOut[s] = MAX_ATT;
+			rr[s] = 34;
+			ksr[s] = -1;
+		}
+		for (int ch = 0; ch < 6; ch++) {
+			panLeft[ch] = -1;
+			panRight[ch] = -1;
+			ams[ch] = LFO_AMS_SHIFT[0];
+			dirty[ch] = true;
+		}
+		mode = 0;
+		status = 0;
+		dacEnabled = false;
+		dacOut = 0;
+
+		for (int part = 0; part < 2; part++) {
+			Arrays.fill(registers[part], 0);
+			for (int c = 0; c < 3; c++) {
+				registers[part][0xB4 + c] = 0xC0;	//	como panLeft / panRight de arriba
+			}
+		}
+		Arrays.fill(keys, 0);
+	}
+
+	//	puertos 0-3 como los ve el Z80 en 0x4000-0x4003: direccion y dato de la parte I y de la II
+	void write(int port, int data) {
+		data &= 0xFF;
+		if ((port & 1) == 0) {
+			address[port >> 1] = data;
+		} else {
+			writeRegister(port >> 1, address[port >> 1], data);
+		}
+	}
+
+	int readStatus() {
+		return status;
+	}
+
+	void writeRegister(int part, int reg, int v) {
+		registers[part][reg] = v;
+		if (reg == 0x28 && part == 0) {
+			keys[v & 7] = v;
+		}
+		if (reg < 0x30) {
+			if (part == 0) {
+				writeMode(reg, v);
+			}
+			return;
+		}
+		if (reg >= 0xA0) {
+			writeChannel(part, reg, v);
+			return;
+		}
+		int c = reg & 3;
+		if (c == 3) {
+			return;
+		}
+		int ch = (part * 3) + c;
+		int s = (ch * 4) + ((reg >> 2) & 3);
+
+		switch (reg & 0xF0) {
+		case 0x30:
+			dt[s] = (v >> 4) & 7;
+			mul[s] = (v & 0x0F) != 0 ? (v & 0x0F) * 2 : 1;
+			dirty[ch] = true;
+			break;
+		case 0x40:
+			tl[s] = (v & 0x7F) << (ENV_BITS - 7);
+			updateVolOut(s);
+			break;
+		case 0x50:
+			ks[s] = 3 - (v >> 6);
+			ar[s] = (v & 0x1F) != 0 ? 32 + ((v & 0x1F) << 1) : 0;
+			ksr[s] = -1;
+			dirty[ch] = true;
+			break;
+		case 0x60:
+			amMask[s] = (v & 0x80) != 0 ? -1 : 0;
+			d1r[s] = (v & 0x1F) != 0 ? 32 + ((v & 0x1F) << 1) : 0;
+			ksr[s] = -1;
+			dirty[ch] = true;
+			break;
+		case 0x70:
+			d2r[s] = (v & 0x1F) != 0 ? 32 + ((v & 0x1F) << 1) : 0;
+			ksr[s] = -1;
+			dirty[ch] = true;
+			break;
+		case 0x80:
+			sl[s] = SL_TABLE[v >> 4];
+			rr[s] = 34 + ((v & 0x0F) << 2);
+			ksr[s] = -1;
+			dirty[ch] = true;
+			break;
+		case 0x90:
+			ssg[s] = v & 0x0F;
+			updateVolOut(s);
+			break;
+		}
+	}
+
+	private void writeMode(int reg, int v) {
+		switch (reg) {
+		case 0x22:		//	LFO
+			if ((v & 0x08) != 0) {
+				lfoStep = LFO_SAMPLES_PER_STEP[v & 7];
+			} else {
+				lfoStep = 0;
+				lfoCnt = 0;
+				lfoCounter = 0;
+			}
+			break;
+		case 0x24:
+			timerA = (timerA & 0x03) | (v << 2);
+			break;
+		case 0x25:
+			timerA = (timerA & 0x3FC) | (v & 3);
+			break;
+		case 0x26:
+			timerB = v;
+			break;
+		case 0x27:
+			if ((v & 1) != 0 && (mode & 1) == 0) {
+				timerACount = 1024 - timerA;
+			}
+			if ((v & 2) != 0 && (mode & 2) == 0) {
+				timerBCount = (256 - timerB) * 16;
+			}
+			if ((v & 0x10) != 0) {
+				status &= ~1;
+			}
+			if ((v & 0x20) != 0) {
+				status &= ~2;
+			}
+			if ((v & 0xC0) != (mode & 0xC0)) {
+				dirty[2] = true;
+			}
+			mode = v;
+			break;
+		case 0x28:		//	key on / off
+			int ch = v & 3;
+			if (ch == 3) {
+				return;
+			}
+			if ((v & 4) != 0) {
+				ch += 3;
+			}
+			int base = ch * 4;
+			setKey(base, (v & 0x10) != 0);		//	op1
+			setKey(base + 2, (v & 0x20) != 0);	//	op2
+			setKey(base + 1, (v & 0x40) != 0);	//	op3
+			setKey(base + 3, (v & 0x80) != 0);	//	op4
+			break;
+		case 0x2A:		//	DAC, 8 bits sin signo
+			dacOut = ((v & 0xFF) - 0x80) << 6;
+			break;
+		case 0x2B:
+			dacEnabled = (v & 0x80) != 0;
+			break;
+		}
+	}
+
+	private void writeChannel(int part, int reg, int v) {
+		int c = reg & 3;
+		if (c == 3) {
+			return;
+		}
+		int ch = (part * 3) + c;
+
+		switch (reg & 0xFC) {
+		case 0xA0:
+			blockFnum[ch] = ((fnHigh[part] & 0x3F) << 8) | v;
+			dirty[ch] = true;
+			break;
+		case 0xA4:
+			fnHigh[part] = v & 0x3F;
+			break;
+		case 0xA8:		//	canal 3 en modo especial, solo en la parte I
+			if (part == 0) {
+				sl3BlockFnum[c] = ((sl3FnHigh & 0x3F) << 8) | v;
+				dirty[2] = true;
+			}
+			break;
+		case 0xAC:
+			if (part == 0) {
+				sl3FnHigh = v & 0x3F;
+			}
+			break;
+		case 0xB0:
+			algo[ch] = v & 7;
+			int feedback = (v >> 3) & 7;
+			fb[ch] = feedback != 0 ? feedback + 6 : 0;
+			break;
+		case 0xB4:
+			panLeft[ch] = (v & 0x80) != 0 ? -1 : 0;
+			panRight[ch] = (v & 0x40) != 0 ? -1 : 0;
+			ams[ch] = LFO_AMS_SHIFT[(v >> 4) & 3];
+			pms[ch] = (v & 7) * 32;
+			break;
+		}
+	}
+
+	private void setKey(int s, boolean on) {
+		if (on && !key[s]) {
+			key[s] = true;
+			phase[s] = 0;
+			ssgn[s] = 0;
+			if (ar[s] + Math.max(ksr[s], 0) < 32 + 62) {
+				state[s] = volume[s] <= 0 ? (sl[s] == 0 ? EG_SUS : EG_DEC) : EG_ATT;
+			} else {
+				volume[s] = 0;
+				state[s] = sl[s] == 0 ? EG_SUS : EG_DEC;
+			}
+			updateVolOut(s);
+
+		} else if (!on && key[s]) {
+			key[s] = false;
+			if (state[s] > EG_REL) {
+				state[s] = EG_REL;
+				if ((ssg[s] & 0x08) != 0) {
+					if ((ssgn[s] ^ (ssg[s] & 0x04)) != 0) {
+						volume[s] = 0x200 - volume[s];
+					}
+					if (volume[s] >= 0x200) {
+						volume[s] = MAX_ATT;
+						state[s] = EG_OFF;
+					}
+				}
+			}
+			updateVolOut(s);
+		}
+	}
+
+	private void updateVolOut(int s) {
+		int v = volume[s];
+		if ((ssg[s] & 0x08) != 0 && (ssgn[s] ^ (ssg[s] & 0x04)) != 0 && state[s] > EG_REL) {
+			v = (0x200 - v) & MAX_ATT;
+		}
+		volOut[s] = v + tl[s];
+	}
+
+	//	frecuencia, detune y rates dependientes del key code de los 4 operadores del canal
+	private void refreshChannel(int ch) {
+		dirty[ch] = false;
+		boolean special = ch == 2 && (mode & 0xC0) != 0;
+		for (int i = 0; i < 4; i++) {
+			int s = (ch * 4) + i;
+			int bf = blockFnum[ch];
+			if (special && i != 3) {	//	op1 usa A9, op3 usa A8 y op2 usa AA
+				bf = sl3BlockFnum[i == 0 ? 1 : (i == 1 ? 0 : 2)];
+			}
+			int blk = (bf >> 11) & 7;
+			int fn = bf & 0x7FF;
+			int kc = (blk << 2) | FK_TABLE[fn >> 7];
+			int fc = FN_TABLE[fn * 2] >> (7 - blk);
+
+			slotBlockFnum[s] = bf;
+			slotKcode[s] = kc;
+			slotFc[s] = fc;
+
+			int finc = fc + DT_TAB[dt[s]][kc];
+			if (finc < 0) {
+				finc += FN_MAX;
+			}
+			incr[s] = (finc * mul[s]) >> 1;
+
+			int k = kc >> ks[s];
+			if (ksr[s] != k) {
+				ksr[s] = k;
+				if (ar[s] + k < 32 + 62) {
+					egShAr[s] = EG_RATE_SHIFT[ar[s] + k];
+					egSelAr[s] = EG_RATE_SELECT[ar[s] + k];
+				} else {
+					egShAr[s] = 0;
+					egSelAr[s] = 17 * RATE_STEPS;
+				}
+				egShD1r[s] = EG_RATE_SHIFT[d1r[s] + k];
+				egSelD1r[s] = EG_RATE_SELECT[d1r[s] + k];
+				egShD2r[s] = EG_RATE_SHIFT[d2r[s] + k];
+				egSelD2r[s] = EG_RATE_SELECT[d2r[s] + k];
+				egShRr[s] = EG_RATE_SHIFT[rr[s] + k];
+				egSelRr[s] = EG_RATE_SELECT[rr[s] + k];
+			}
+		}
+	}
+
+	//	los timers corren con el tiempo emulado, no con el render
+	void runTimers(int samples) {
+		if ((mode & 1) != 0) {
+			timerACount -= samples;
+			while (timerACount <= 0) {
+				timerACount += 1024 - timerA;
+				if ((mode & 4) != 0) {
+					status |= 1;
+				}
+				if ((mode & 0xC0) == 0x80) {	//	CSM: key on y off de los 4 operadores del canal 3
+					for (int s = 8; s < 12; s++) {
+						if (!key[s]) {
+							setKey(s, true);
+							setKey(s, false);
+						}
+					}
+				}
+			}
+		}
+		if ((mode & 2) != 0) {
+			timerBCount -= samples;
+			while (timerBCount <= 0) {
+				timerBCount += (256 - timerB) * 16;
+				if ((mode & 8) != 0) {
+					status |= 2;
+				}
+			}
+		}
+	}
+
+	//	suma las muestras en buffer (L, R intercaladas) desde offset, que se pone en 0 antes
+	void render(int[] buffer, int offset, int samples) {
+		while (samples > 0) {
+			int count = Math.min(samples, BLOCK);
+			prepareBlock(count);
+
+			int end = offset + (count * 2);
+			for (int i = offset; i < end; i++) {
+				buffer[i] = 0;
+			}
+			for (int ch = 0; ch < 6; ch++) {
+				if (ch == 5 && dacEnabled) {
+					renderDac(buffer, offset, count);
+				} else {
+					renderChannel(ch, buffer, offset, count);
+				}
+			}
+
+			offset = end;
+			samples -= count;
+		}
+	}
+
+	//	LFO y ticks del envelope de todo el bloque, comunes a los 6 canales
+	private void prepareBlock(int count) {
+		int[] eg = blockEg;
+		int[] am = blockAm;
+		int[] pm = blockPm;
+		for (int i = 0; i < count; i++) {
+			if (lfoStep != 0) {
+				if (++lfoCounter >= lfoStep) {
+					lfoCounter = 0;
+					lfoCnt = (lfoCnt + 1) & 127;
+				}
+				am[i] = lfoCnt < 64 ? (lfoCnt ^ 63) << 1 : (lfoCnt & 63) << 1;
+				pm[i] = lfoCnt >> 2;
+			} else {
+				am[i] = 0;
+				pm[i] = 0;
+			}
+
+			if (++egTimer == 3) {
+				egTimer = 0;
+				if (++egCnt == 4096) {
+					egCnt = 1;
+				}
+				eg[i] = egCnt;
+			} else {
+				eg[i] = 0;
+			}
+		}
+	}
+
+	private void renderDac(int[] buffer, int offset, int count) {
+		int left = dacOut & panLeft[5];
+		int right = dacOut & panRight[5];
+		for (int i = 0; i < count; i++) {
+			buffer[offset + (i * 2)] += left;
+			buffer[offset + (i * 2) + 1] += right;
+		}
+	}
+
+	private void renderChannel(int ch, int[] buffer, int offset, int count) {
+		if (dirty[ch]) {
+			refreshChannel(ch);
+		}
+		int base = ch * 4;
+		int s1 = base;			//	op1
+		int s3 = base + 1;		//	op3
+		int s2 = base + 2;		//	op2
+		int s4 = base + 3;		//	op4
+
+		//	canal callado: nada que sumar ni envelopes que avanzar
+		if (state[s1] == EG_OFF && state[s2] == EG_OFF && state[s3] == EG_OFF && state[s4] == EG_OFF) {
+			return;
+		}
+
+		int algorithm = algo[ch];
+		int feedback = fb[ch];
+		int amShift = ams[ch];
+		int pmDepth = pms[ch];
+		int left = panLeft[ch];
+		int right = panRight[ch];
+		int out0 = op1Out0[ch];
+		int out1 = op1Out1[ch];
+
+		int phase1 = phase[s1];
+		int phase2 = phase[s2];
+		int phase3 = phase[s3];
+		int phase4 = phase[s4];
+
+		//	cambian solo con los ticks del envelope y los pasos del LFO
+		int v1 = volOut[s1];
+		int v2 = volOut[s2];
+		int v3 = volOut[s3];
+		int v4 = volOut[s4];
+		int m1 = amMask[s1];
+		int m2 = amMask[s2];
+		int m3 = amMask[s3];
+		int m4 = amMask[s4];
+		int i1 = incr[s1];
+		int i2 = incr[s2];
+		int i3 = incr[s3];
+		int i4 = incr[s4];
+		int lastPm = 0;
+
+		int[] eg = blockEg;
+		int[] am = blockAm;
+		int[] pm = blockPm;
+
+		for (int i = 0; i < count; i++) {
+			int cnt = eg[i];
+			if (cnt != 0) {
+				phase[s1] = phase1;
+				phase[s2] = phase2;
+				phase[s3] = phase3;
+				phase[s4] = phase4;
+				advanceEnvelope(s1, cnt);
+				advanceEnvelope(s2, cnt);
+				advanceEnvelope(s3, cnt);
+				advanceEnvelope(s4, cnt);
+				phase1 = phase[s1];		//	el SSG-EG en loop reinicia la fase
+				phase2 = phase[s2];
+				phase3 = phase[s3];
+				phase4 = phase[s4];
+				v1 = volOut[s1];
+				v2 = volOut[s2];
+				v3 = volOut[s3];
+				v4 = volOut[s4];
+			}
+
+			if (pmDepth != 0 && pm[i] != lastPm) {
+				lastPm = pm[i];
+				i1 = pmIncrement(s1, pmDepth + lastPm);
+				i2 = pmIncrement(s2, pmDepth + lastPm);
+				i3 = pmIncrement(s3, pmDepth + lastPm);
+				i4 = pmIncrement(s4, pmDepth + lastPm);
+			}
+
+			int lfoAm = am[i] >> amShift;
+			int e1 = v1 + (lfoAm & m1);
+			int e2 = v2 + (lfoAm & m2);
+			int e3 = v3 + (lfoAm & m3);
+			int e4 = v4 + (lfoAm & m4);
+
+			//	op1 con feedback, se usa la salida de la muestra anterior
+			int fbIn = out0 + out1;
+			out0 = out1;
+			int o1 = out0;
+			out1 = 0;
+			if (e1 < ENV_QUIET) {
+				out1 = opCalc1(phase1, e1, feedback != 0 ? fbIn << feedback : 0);
+			}
+
+			int out;
+			switch (algorithm) {
+			case 0: {
+				int o2 = opCalc(phase2, e2, o1);
+				int o3 = opCalc(phase3, e3, o2);
+				out = opCalc(phase4, e4, o3);
+				break;
+			}
+			case 1: {
+				int o3 = opCalc(phase3, e3, o1 + opCalc(phase2, e2, 0));
+				out = opCalc(phase4, e4, o3);
+				break;
+			}
+			case 2: {
+				int o3 = opCalc(phase3, e3, opCalc(phase2, e2, 0));
+				out = opCalc(phase4, e4, o1 + o3);
+				break;
+			}
+			case 3: {
+				int o2 = opCalc(phase2, e2, o1);
+				out = opCalc(phase4, e4, o2 + opCalc(phase3, e3, 0));
+				break;
+			}
+			case 4:
+				out = opCalc(phase2, e2, o1) + opCalc(phase4, e4, opCalc(phase3, e3, 0));
+				break;
+			case 5:
+				out = opCalc(phase2, e2, o1) + opCalc(phase3, e3, o1) + opCalc(phase4, e4, o1);
+				break;
+			case 6:
+				out = opCalc(phase2, e2, o1) + opCalc(phase3, e3, 0) + opCalc(phase4, e4, 0);
+				break;
+			default:
+				out = o1 + opCalc(phase2, e2, 0) + opCalc(phase3, e3, 0) + opCalc(phase4, e4, 0);
+				break;
+			}
+
+			if (out > 8191) {
+				out = 8191;
+			} else if (out < -8192) {
+				out = -8192;
+			}
+			buffer[offset + (i * 2)] += out & left;
+			buffer[offset + (i * 2) + 1] += out & right;
+
+			phase1 += i1;
+			phase2 += i2;
+			phase3 += i3;
+			phase4 += i4;
+		}
+
+		phase[s1] = phase1;
+		phase[s2] = phase2;
+		phase[s3] = phase3;
+		phase[s4] = phase4;
+		op1Out0[ch] = out0;
+		op1Out1[ch] = out1;
+	}
+
+	private int pmIncrement(int s, int pmIndex) {
+		int bf = slotBlockFnum[s];
+		int offset = LFO_PM_TABLE[(((bf & 0x7F0) >> 4) << 8) + pmIndex];
+		if (offset == 0) {
+			return incr[s];
+		}
+		bf = (bf * 2) + offset;
+		int blk = (bf & 0x7000) >> 12;
+		int fn = bf & 0xFFF;
+		int kc = (blk << 2) | FK_TABLE[fn >> 8];
+		int finc = (FN_TABLE[fn] >> (7 - blk)) + DT_TAB[dt[s]][kc];
+		if (finc < 0) {
+			finc += FN_MAX;
+		}
+		return (finc * mul[s]) >> 1;
+	}
+
+	private void advanceEnvelope(int s, int cnt) {
+		int ssgMode = ssg[s];
+		if ((ssgMode & 0x08) != 0 && volume[s] >= 0x200 && state[s] > EG_REL) {
+			updateSsg(s, ssgMode);
+		}
+
+		switch (state[s]) {
+		case EG_ATT: {
+			int shift = egShAr[s];
+			if ((cnt & ((1 << shift) - 1)) == 0) {
+				int v = volume[s];
+				v += (~v * EG_INC[egSelAr[s] + ((cnt >> shift) & 7)]) >> 4;
+				if (v <= 0) {
+					v = 0;
+					state[s] = sl[s] == 0 ? EG_SUS : EG_DEC;
+				}
+				volume[s] = v;
+			}
+			break;
+		}
+		case EG_DEC: {
+			int shift = egShD1r[s];
+			if ((cnt & ((1 << shift) - 1)) == 0) {
+				int inc = EG_INC[egSelD1r[s] + ((cnt >> shift) & 7)];
+				if ((ssgMode & 0x08) != 0) {
+					if (volume[s] < 0x200) {
+						volume[s] += 4 * inc;
+					}
+				} else {
+					volume[s] += inc;
+				}
+				if (volume[s] >= sl[s]) {
+					state[s] = EG_SUS;
+				}
+			}
+			break;
+		}
+		case EG_SUS: {
+			int shift = egShD2r[s];
+			if ((cnt & ((1 << shift) - 1)) == 0) {
+				int inc = EG_INC[egSelD2r[s] + ((cnt >> shift) & 7)];
+				if ((ssgMode & 0x08) != 0) {
+					if (volume[s] < 0x200) {
+						volume[s] += 4 * inc;
+					}
+				} else {
+					volume[s] += inc;
+					if (volume[s] >= MAX_ATT) {
+						volume[s] = MAX_ATT;
+					}
+				}
+			}
+			break;
+		}
+		case EG_REL: {
+			int shift = egShRr[s];
+			if ((cnt & ((1 << shift) - 1)) == 0) {
+				int inc = EG_INC[egSelRr[s] + ((cnt >> shift) & 7)];
+				if ((ssgMode & 0x08) != 0) {
+					if (volume[s] < 0x200) {
+						volume[s] += 4 * inc;
+					}
+					if (volume[s] >= 0x200) {
+						volume[s] = MAX_ATT;
+						state[s] = EG_OFF;
+					}
+				} else {
+					volume[s] += inc;
+					if (volume[s] >= MAX_ATT) {
+						volume[s] = MAX_ATT;
+						state[s] = EG_OFF;
+					}
+				}
+			}
+			break;
+		}
+		}
+		updateVolOut(s);
+	}
+
+	//	SSG-EG: al llegar al final del envelope se repite, se invierte o se mantiene
+	private void updateSsg(int s, int ssgMode) {
+		if ((ssgMode & 0x01) != 0) {		//	hold
+			if ((ssgMode & 0x02) != 0) {
+				ssgn[s] = 4;
+			}
+			if (state[s] != EG_ATT && (ssgn[s] ^ (ssgMode & 0x04)) == 0) {
+				volume[s] = MAX_ATT;
+			}
+		} else {
+			if ((ssgMode & 0x02) != 0) {
+				ssgn[s] ^= 4;
+			} else {
+				phase[s] = 0;
+			}
+			if (state[s] != EG_ATT) {
+				if (ar[s] + ksr[s] < 32 + 62) {
+					state[s] = EG_ATT;
+				} else {
+					volume[s] = 0;
+					state[s] = EG_DEC;
+				}
+			}
+		}
+	}
+
+	private static int opCalc(int phase, int env, int pm) {
+		int p = (env << 3) + SIN_TAB[(((phase & ~FREQ_MASK) + (pm << 15)) >> FREQ_SH) & SIN_MASK];
+		return p >= TL_TAB_LEN ? 0 : TL_TAB[p];
+	}
+
+	private static int opCalc1(int phase, int env, int pm) {
+		int p = (env << 3) + SIN_TAB[(((phase & ~FREQ_MASK) + pm) >> FREQ_SH) & SIN_MASK];
+		return p >= TL_TAB_LEN ? 0 : TL_TAB[p];
+	}
+
+}
@@ -66,23 +66,67 @@ public class GenZ80 {
     boolean enableInterruptsNextInstr;
 	int interruptMode;
 	
-	int[] flagsSZ = new int[256];
+	static final int FLAG_S = 0x80;
+	static final int FLAG_Z = 0x40;
+	static final int FLAG_Y = 0x20;		//	bit 5 del resultado, no documentado
+	static final int FLAG_H = 0x10;
+	static final int FLAG_X = 0x08;		//	bit 3 del resultado, no documentado
+	static final int FLAG_PV = 0x04;
+	static final int FLAG_N = 0x02;
+	static final int FLAG_C = 0x01;
+	
+	//	Flags precalculados, como en los cores rapidos (MAME): cada instruccion aritmetica pone F con una
+	//	sola lectura. Los de 8 bits con dos operandos se indexan con carry << 16 | a << 8 | b.
+	static final int[] flagsSZ = new int[256];
+	static final int[] flagsSZP = new int[256];
+	static final int[] flagsInc = new int[256];		//	SZHV del resultado de INC
+	static final int[] flagsDec = new int[256];		//	SZHVN del resultado de DEC
+	static final byte[] flagsAdd = new byte[2 * 256 * 256];	//	ADD y ADC
+	static final byte[] flagsSub = new byte[2 * 256 * 256];	//	SUB, SBC y CP
+	
+	static {
+		initCache();
+	}
 	
 	public GenZ80(GenBus bus) {
 		this.bus = bus;
 		
-		initCache();
+		initPages();
 		
 		reset = true;
 		busRequested = false;
 	}
 	
-	void initCache() {
+	static void initCache() {
 		for (int i = 0; i < 256; i++) {
-			if ((i & 0x80) > 0) {
-				flagsSZ[i] |= 0x80;
+			int sz = (i & (FLAG_S | FLAG_Y | FLAG_X)) | (i == 0 ? FLAG_Z : 0);
+			flagsSZ[i] = sz;
+			flagsSZP[i] = sz | ((Integer.bitCount(i) & 1) == 0 ? FLAG_PV : 0);
+			flagsInc[i] = sz | (i == 0x80 ? FLAG_PV : 0) | ((i & 0xF) == 0 ? FLAG_H : 0);
+			flagsDec[i] = sz | FLAG_N | (i == 0x7F ? FLAG_PV : 0) | ((i & 0xF) == 0xF ? FLAG_H : 0);
+		}
+		for (int carry = 0; carry < 2; carry++) {
+			for (int a = 0; a < 256; a++) {
+				for (int b = 0; b < 256; b++) {
+					int index = (carry << 16) | (a << 8) | b;
+					
+					int sum = a + b + carry;
+					int result = sum & 0xFF;
+					int flags = flagsSZ[result];
+					flags |= sum > 0xFF ? FLAG_C : 0;
+					flags |= ((a ^ b ^ result) & 0x10) != 0 ? FLAG_H : 0;
+					flags |= ((a ^ ~b) & (a ^ result) & 0x80) != 0 ? FLAG_PV : 0;
+					flagsAdd[index] = (byte) flags;
+					
+					int diff = a - b - carry;
+					result = diff & 0xFF;
+					flags = flagsSZ[result] | FLAG_N;
+					flags |= diff < 0 ? FLAG_C : 0;
+					flags |= ((a ^ b ^ result) & 0x10) != 0 ? FLAG_H : 0;
+					flags |= ((a ^ b) & (a ^ result) & 0x80) != 0 ? FLAG_PV : 0;
+					flagsSub[index] = (byte) flags;
+				}
 			}
-			flagsSZ[0] |= 0x40;
 		}
 	}
 	
@@ -107,8 +151,8 @@ public class GenZ80 {
 //			System.out.println("Z80: " + Integer.toHexString(PC - 1));
 		}
 		
-		String fullOpcode = hex(opcode);
         if (toPrint) {
+        	String fullOpcode = hex(opcode);
             lineLog.setLength(0);
             lineLog.append("\nAF: ").append(hex(A)).append(hex(F)).append(" - BC: ").append(hex(B))
                 .append(hex(C)).append(" - DE: ").append(hex(D)).append(hex(E)).append(" - HL: ")
@@ -1390,6 +1434,7 @@ public class GenZ80 {
         case 0xF3:	//	DI
             disableInterruptsNow = true;
             enableInterrupts = false;
+            enableInterruptsNextInstr = false;	//	EI seguido de DI: queda deshabilitado
             cycles = 4;
             break;
         case 0xF4:	//	call p,**
@@ -4233,6 +4278,136 @@ public class GenZ80 {
 		return cycles;
 	}
 	
+	//	Instrucciones de bloque (LDIR, LDDR, CPIR, OTIR) de una: en vez de volver PC al ED y ejecutar
+	//	todo de nuevo por cada byte (fetch, prefijo, dispatch de memoria), se hacen juntas todas las
+	//	vueltas que entran en cycleLimit, con 21 ciclos por vuelta que repite y 16 la ultima, como el chip.
+	//	Si no terminan, PC queda en el ED y siguen en la proxima llamada, asi el fin del slice o una
+	//	interrupcion las cortan entre dos vueltas igual que en el chip.
+	//	Las copias entre paginas con array (RAM, ROM del banco) van directo con System.arraycopy.
+	int cycleLimit = 228;	//	ciclos hasta el proximo evento, una linea si nadie lo pone
+	
+	//	vueltas que se pueden hacer, al menos una
+	private int blockIterations(int count) {
+		int fit = cycleLimit >= 16 ? ((cycleLimit - 16) / 21) + 1 : 1;
+		return Math.min(count, fit);
+	}
+	
+	//	lo que queda de la instruccion despues de n vueltas: PC, R y ciclos
+	private int blockEnd(int n, boolean repeat) {
+		R = (R + n - 1) & 0x7F;		//	una vuelta ya la cuenta executeInstruction
+		if (repeat) {
+			PC = (PC - 1) & 0xFFFF;
+			return 21 * n;
+		}
+		PC = (PC + 1) & 0xFFFF;
+		return (21 * (n - 1)) + 16;
+	}
+	
+	//	LDIR (step 1) y LDDR (step -1)
+	private int blockLoad(int step) {
+		int count = BC() == 0 ? 0x10000 : BC();
+		int n = blockIterations(count);
+		int hl = HL();
+		int de = DE();
+		
+		int done = 0;
+		while (done < n) {
+			int chunk = n - done;
+			if (step > 0) {
+				chunk = Math.min(chunk, Math.min(0x100 - (hl & 0xFF), 0x100 - (de & 0xFF)));
+			} else {
+				chunk = Math.min(chunk, Math.min((hl & 0xFF) + 1, (de & 0xFF) + 1));
+			}
+			int[] src = readPages[hl >> 8];
+			int[] dst = writePages[de >> 8];
+			if (src != null && dst != null) {
+				int s = readOffsets[hl >> 8] + (hl & 0xFF);
+				int d = writeOffsets[de >> 8] + (de & 0xFF);
+				if (step > 0 && (src != dst || d <= s || d >= s + chunk)) {
+					System.arraycopy(src, s, dst, d, chunk);
+				} else {		//	solapado hacia adelante (relleno) o LDDR: byte por byte como el chip
+					for (int i = 0; i < chunk; i++) {
+						dst[d + (i * step)] = src[s + (i * step)];
+					}
+				}
+			} else {
+				for (int i = 0; i < chunk; i++) {
+					writeMemory((de + (i * step)) & 0xFFFF, readMemory((hl + (i * step)) & 0xFFFF));
+				}
+			}
+			hl = (hl + (chunk * step)) & 0xFFFF;
+			de = (de + (chunk * step)) & 0xFFFF;
+			done += chunk;
+		}
+		
+		HL(hl);
+		DE(de);
+		BC((count - n) & 0xFFFF);
+		
+		clearNegativeFlag();
+		clearHalfCarryFlag();
+		if (BC() != 0) {
+			setParityFlag();
+		} else {
+			clearParityFlag();
+		}
+		return blockEnd(n, BC() != 0);
+	}
+	
+	//	CPIR: hasta que BC llega a 0 o A = (HL), los flags son los del ultimo CP sin tocar el carry
+	private int blockCompare() {
+		int count = BC() == 0 ? 0x10000 : BC();
+		int n = blockIterations(count);
+		int hl = HL();
+		
+		int value = 0;
+		int done = 0;
+		boolean found = false;
+		while (done < n && !found) {
+			value = readMemory(hl);
+			hl = (hl + 1) & 0xFFFF;
+			done++;
+			found = value == A;
+		}
+		
+		HL(hl);
+		BC((count - done) & 0xFFFF);
+		
+		int carry = F & FLAG_C;
+		cpuCmp(A, value);
+		F = (F & ~FLAG_C) | carry;
+		if (BC() != 0) {
+			setOverflowFlag();
+		} else {
+			clearOverflowFlag();
+		}
+		return blockEnd(done, BC() != 0 && !found);
+	}
+	
+	//	OTIR: cada byte igual pasa por el puerto, se ahorra el fetch y el dispatch
+	private int blockOut() {
+		int count = B == 0 ? 0x100 : B;
+		int n = blockIterations(count);
+		int hl = HL();
+		for (int i = 0; i < n; i++) {
+			bus.outPort(C, readMemory(hl));
+			hl = (hl + 1) & 0xFFFF;
+		}
+		HL(hl);
+		B = (count - n) & 0xFF;
+		
+		if (B == 0) {
+			setZeroFlag();
+		} else {
+			clearZeroFlag();
+		}
+		setNegativeFlag();		//	como en MEKA
+		setHalfCarryFlag();
+		setCarryFlag();
+		clearSignFlag();
+		return blockEnd(n, B != 0);
+	}
+	
 	private int extendedED(int opcode) {
 		int tmp;
 		int addr;
@@ -4772,25 +4947,7 @@ public class GenZ80 {
 		//	interrupts can trigger
 		//	P/V is reset.
 		case 0xB0:
-			tmp = readMemory(HL());
-			writeMemory(DE(), tmp);
-			
-			DE((DE() + 1) & 0xFFFF);
-			HL((HL() + 1) & 0xFFFF);
-			BC((BC() - 1) & 0xFFFF);
-				
-			clearParityFlag();
-			clearNegativeFlag();
-			clearHalfCarryFlag();
-			
-			if (BC() != 0) {
-				PC = (PC - 1) & 0xFFFF;
-				cycles = 21;
-			} else {
-				PC = (PC + 1) & 0xFFFF;
-				cycles = 16;
-			}
-			
+			cycles = blockLoad(1);
 			break;
 			
 		//	cpir
@@ -4799,63 +4956,14 @@ public class GenZ80 {
 //				A=HL
 		//	P/V denotes the overflowing of BC, while the Z flag is set if A=(HL) before HL is decreased.
 		case 0xB1:
-			tmp = readMemory(HL());
-			preserveCarry = isCarryFlagSet();	// hack porque esta instruccion no modifica el carry, pero el cmp comun si
-			
-			cpuCmp(A, tmp);
-			
-			if (preserveCarry) {
-				setCarryFlag();
-			} else {
-				clearCarryFlag();
-			}
-			
-			HL((HL() + 1) & 0xFFFF);
-			BC((BC() - 1) & 0xFFFF);
-			
-			if (BC() != 0) {
-				setOverflowFlag();
-			} else {
-				clearOverflowFlag();
-			}
-			
-			if (BC() != 0 && A != tmp) {
-				PC = (PC - 1) & 0xFFFF;
-				cycles = 21;
-			} else {
-				PC = (PC + 1) & 0xFFFF;
-				cycles = 16;
-			}
-			
+			cycles = blockCompare();
 			break;
 			
 		//	Reads from (HL) and writes to the (C) port. HL is incremented and B is decremented. Repeats until B = 0.
 		//	Z is set, C is preserved, N is reset, H, S, and P/V are undefined.
 		//	B=0 -> 16 cycles   B != 0 -> 21 cycles
 		case 0xB3:		// OTIR
-			tmp = readMemory(HL());
-			bus.outPort(C, tmp);
-			HL(HL() + 1 & 0xFFFF);
-			B = (B - 1) & 0xFF;
-			
-			if (B == 0) {
-				setZeroFlag();
-			} else {
-				clearZeroFlag();
-			}
-			setNegativeFlag();		// TODO incluir todos estos flags en el calculo
-			setHalfCarryFlag();			//	en emulador MEKA se setean estas al final parece
-			setCarryFlag();
-			clearSignFlag();
-			
-			if (B != 0) {
-				PC = (PC - 1) & 0xFFFF;
-				cycles = 21;
-			} else {
-				PC = (PC + 1) & 0xFFFF;
-				cycles = 16;
-			}
-			
+			cycles = blockOut();
 			break;
 		// LDDR
 		//	This 2-byte instruction transfers a byte of data from the memory location addressed by the
@@ -4867,25 +4975,7 @@ public class GenZ80 {
 			//	H is reset.
 			//	P/V is reset
 		case 0xB8:
-			tmp = readMemory(HL());
-			writeMemory(DE(), tmp);
-			
-			HL((HL() - 1) & 0xFFFF);
-			DE((DE() - 1) & 0xFFFF);
-			BC((BC() - 1) & 0xFFFF);
-			
-			clearParityFlag();
-			clearNegativeFlag();
-			clearHalfCarryFlag();
-			
-			if (BC() != 0) {
-				PC = (PC - 1) & 0xFFFF;
-				cycles = 21;
-			} else {
-				PC = (PC + 1) & 0xFFFF;
-				cycles = 16;
-			}
-			
+			cycles = blockLoad(-1);
 			break;
 		//	cpdr
 		case 0xB9:
@@ -4939,7 +5029,7 @@ public class GenZ80 {
 	}
 
 	private void calculateSignZero(int reg) {
-		F = (F & 0x3F) | (flagsSZ[reg] & 0xC0);
+		F = (F & 0x3F) | (flagsSZ[reg & 0xFF] & 0xC0);
 	}
 
 	private int cpuInPort(int port) {
@@ -4994,111 +5084,29 @@ public class GenZ80 {
         return tmp;
 	}
 
+	//	los bits 3 y 5 salen del operando, no del resultado
 	private void cpuCmp(int reg, int toCompare) {
-        int tmp = reg - toCompare;
-        
-        if (tmp < 0) {
-            setCarryFlag();
-        } else {
-            clearCarryFlag();
-        }
-        
-        tmp &= 0xff;
-        
-        if ((tmp & 0xF) > (reg & 0xF)) {
-            setHalfCarryFlag();
-        } else {
-            clearHalfCarryFlag();
-        }
-        
-        calculateSignZero(tmp);
-        
-        if (((reg ^ toCompare) & (reg ^ tmp)) > 0x7f) {
-            setOverflowFlag();
-        } else {
-        	clearOverflowFlag();
-        }
-        
-        setNegativeFlag();
+		toCompare &= 0xFF;
+		F = (flagsSub[((reg & 0xFF) << 8) | toCompare] & ~(FLAG_Y | FLAG_X) & 0xFF) | (toCompare & (FLAG_Y | FLAG_X));
     }
 
     private int cpuSubCarry(int reg, int subs) {
-        int tmp = reg - subs - (isCarryFlagSet() ? 1 : 0);
-        if (tmp < 0) {
-            setCarryFlag();
-        } else {
-            clearCarryFlag();
-        }
-        
-        tmp = tmp & 0xFF;
-        
-        if (((reg ^ subs ^ tmp) & 0x10) != 0) {
-        	setHalfCarryFlag();
-        } else {
-        	clearHalfCarryFlag();
-        }
-        
-        calculateSignZero(tmp);
-        
-        if (((reg ^ subs) & (reg ^ tmp)) > 0x7f) {
-        	setOverflowFlag();
-        } else {
-        	clearOverflowFlag();
-        }
-        
-        setNegativeFlag();
-        
-        return tmp;
+    	int index = ((F & FLAG_C) << 16) | ((reg & 0xFF) << 8) | (subs & 0xFF);
+    	F = flagsSub[index] & 0xFF;
+    	return (reg - subs - (index >> 16)) & 0xFF;
     }
 
     private int cpuAdc(int reg, int toAdd) {
-        int tmp = reg + toAdd + (isCarryFlagSet() ? 1 : 0);
-
-        if (tmp > 0xFF) {
-            setCarryFlag();
-        } else {
-            clearCarryFlag();
-        }
-        
-        int result = tmp & 0xFF;
-        
-        calculateSignZero(result);
-        
-        if (((reg ^ toAdd ^ result) & 0x10) != 0) {
-            setHalfCarryFlag();
-        } else {
-        	clearHalfCarryFlag();
-        }
-        if (((reg ^ ~toAdd) & (reg ^ result)) > 0x7f) {
-        	setOverflowFlag();
-        } else {
-        	clearOverflowFlag();
-        }
-        
-        clearNegativeFlag();
-        
-        return result;
+    	int index = ((F & FLAG_C) << 16) | ((reg & 0xFF) << 8) | (toAdd & 0xFF);
+    	F = flagsAdd[index] & 0xFF;
+    	return (reg + toAdd + (index >> 16)) & 0xFF;
     }
 
 //    The overflow assumes signed operation. That is, it is set if a value crosses over the maximum possible integer (127, or 0x7f), or below the minimum possible integer (-128, or 0x80). 
 //    As for how it affects DEC/INC, V is set on inc if the result is 0x80, and V is set on dec if the result is 0x7f. Otherwise, it's cleared. 
     private int cpuInc(int reg) {
         reg = (reg + 1) & 0xFF;
-        
-        if ((reg & 0xF) == 0) {
-            setHalfCarryFlag();
-        } else {
-            clearHalfCarryFlag();
-        }
-        if (reg == 0x80) {
-        	setOverflowFlag();
-        } else {
-        	clearOverflowFlag();
-        }
-        
-        calculateSignZero(reg);
-        clearNegativeFlag();
-        
+        F = (F & FLAG_C) | flagsInc[reg];
         return reg;
     }
 
@@ -5167,77 +5175,18 @@ public class GenZ80 {
     
     private int cpuDec(int reg) {
         reg = (reg - 1) & 0xFF;
-        
-        if ((reg & 0xF) == 0xF) {
-            setHalfCarryFlag();
-        } else {
-            clearHalfCarryFlag();
-        }
-        if (reg == 0x7F) {
-        	setOverflowFlag();
-        } else {
-        	clearOverflowFlag();
-        }
-        calculateSignZero(reg);
-        setNegativeFlag();
-        
+        F = (F & FLAG_C) | flagsDec[reg];
         return reg;
     }
 
     private int cpuSub(int reg, int subs) {
-        int tmp = reg - subs;
-        if (tmp < 0) {
-            setCarryFlag();
-        } else {
-            clearCarryFlag();
-        }
-        
-        tmp = tmp & 0xFF;
-        
-        if (((reg ^ subs ^ tmp) & 0x10) != 0) {
-        	setHalfCarryFlag();
-        } else {
-        	clearHalfCarryFlag();
-        }
-        
-        calculateSignZero(tmp);
-        
-        if (((reg ^ subs) & (reg ^ tmp)) > 0x7f) {
-        	setOverflowFlag();
-        } else {
-        	clearOverflowFlag();
-        }
-        
-        setNegativeFlag();
-        
-        return tmp;
+    	F = flagsSub[((reg & 0xFF) << 8) | (subs & 0xFF)] & 0xFF;
+    	return (reg - subs) & 0xFF;
     }
     
     private int cpuAdd(int reg, int toAdd) {
-        int tmp = reg + toAdd;
-        if (tmp > 0xFF) {
-            setCarryFlag();
-        } else {
-            clearCarryFlag();
-        }
-        
-        int result = tmp & 0xFF;
-        
-        if (((reg ^ toAdd ^ result) & 0x10) != 0) {
-            setHalfCarryFlag();
-        } else {
-        	clearHalfCarryFlag();
-        }
-        if (((reg ^ ~toAdd) & (reg ^ result)) > 0x7f) {
-        	setOverflowFlag();
-        } else {
-        	clearOverflowFlag();
-        }
-        
-        calculateSignZero(result);
-        clearNegativeFlag();
-        
-        return result;
+    	F = flagsAdd[((reg & 0xFF) << 8) | (toAdd & 0xFF)] & 0xFF;
+    	return (reg + toAdd) & 0xFF;
     }
     
     private int cpuRl(int reg) {
@@ -5258,41 +5207,20 @@ public class GenZ80 {
     }
 
     private int cpuXor(int reg, int toXor) {
-        reg ^= toXor;
-
-        calculateSignZero(reg);
-        
-        clearCarryFlag();
-        clearHalfCarryFlag();
-        clearNegativeFlag();
-        calculateParity(reg);
-
+        reg = (reg ^ toXor) & 0xFF;
+        F = flagsSZP[reg];
         return reg;
     }
     
     private int cpuOr(int reg, int toOr) {
-        reg = reg | toOr;
-        
-        calculateSignZero(reg);
-        
-        clearCarryFlag();
-        clearHalfCarryFlag();
-        clearNegativeFlag();
-        calculateParity(reg);
-        
+        reg = (reg | toOr) & 0xFF;
+        F = flagsSZP[reg];
         return reg;
     }
 
     private int cpuAnd(int reg, int toAnd) {
-        reg = reg & toAnd;
-        
-        calculateSignZero(reg);
-        
-        clearCarryFlag();
-        setHalfCarryFlag();
-        clearNegativeFlag();
-        calculateParity(reg);
-        
+        reg = reg & toAnd & 0xFF;
+        F = flagsSZP[reg] | FLAG_H;
         return reg;
     }
 
@@ -5700,24 +5628,85 @@ public class GenZ80 {
     int romBank68kSerial;
     int romBankPointer;
     
+    GenYm2612 ym;
+    
+//	Paginas de 256 bytes del espacio del Z80. Las que tienen array (la RAM, y la ventana del 68k
+//	cuando apunta a ROM lineal o a la RAM del 68k) se leen directo con el offset de la pagina, las
+//	null (YM2612, banking, PSG, SRAM, mapper SSF2) van por readIO / writeIO.
+//	La ventana se recalcula solo cuando se completan los 9 bits del registro de banco.
+    int[][] readPages = new int[256][];
+    int[] readOffsets = new int[256];
+    int[][] writePages = new int[256][];
+    int[] writeOffsets = new int[256];
+    
+    private void initPages() {
+    	for (int page = 0; page < 0x20; page++) {
+    		readPages[page] = memory;
+    		readOffsets[page] = page << 8;
+    		writePages[page] = memory;
+    		writeOffsets[page] = page << 8;
+    	}
+    	updateBankPages();
+    }
+    
+    void updateBankPages() {
+    	int base = romBank68kSerial << 15;
+    	int[] cartridge = bus.memory != null ? bus.memory.cartridge : null;
+    	int[] target = null;
+    	int offset = 0;
+    	if (base >= 0xFF0000) {
+    		target = bus.memory.ram;
+    		offset = base - 0xFF0000;
+    	} else if (cartridge != null && (base + 0x8000) <= cartridge.length
+    			&& !(bus.ssf2Mapper && base >= 0x80000)
+    			&& !(base >= 0x200000 && base <= 0x20FFFF)) {
+    		target = cartridge;
+    		offset = base;
+    	}
+    	for (int page = 0; page < 0x80; page++) {
+    		readPages[0x80 + page] = target;
+    		readOffsets[0x80 + page] = offset + (page << 8);
+    	}
+    }
+    
     void writeMemory(int address, int data) {
+    	accesses++;
+    	if (address < 0x2000) {		//	la RAM primero, es lo que mas se usa y no necesita la tabla
+    		memory[address] = data;
+    		return;
+    	}
+    	address &= 0xFFFF;
+    	int page = address >> 8;
+    	int[] m = writePages[page];
+    	if (m != null) {
+    		m[writeOffsets[page] + (address & 0xFF)] = data;
+    	} else {
+    		writeIO(address, data);
+    	}
+    }
+    
+    private void writeIO(int address, int data) {
     	if (address < 0x2000) {
     		memory[address] = data;
 		} else if (address >= 0x2000 && address <= 0x3FFF) {
 			//	RESERVED
 		} else if (address == 0x4000) {		//	YM2612 A0
 			YMA0 = data;
+			bus.emu.ymWrite(0, data);
 		} else if (address == 0x4001) {		//	YM2612 D0
 			YMD0 = data;
+			bus.emu.ymWrite(1, data);
 		} else if (address == 0x4002) {		//	YM2612 A1
 			YMA1 = data;
+			bus.emu.ymWrite(2, data);
 		} else if (address == 0x4003) {		//	YM2612 D1
 			YMD1 = data;
+			bus.emu.ymWrite(3, data);
 		} else if (address == 0x6000) {		//	rom banking
 			romBanking(data);
 			
 		} else if (address == 0x7F11) {		//	SN76489 PSG
-			System.out.println("PSG write Z80");
+			bus.emu.psgWrite(data & 0xFF);
 		} else if (address >= 0x8000 && address <= 0xFFFF) {
 			System.out.println("ESCRITURA 68k!!!!!!");
 			address = address - 0x8000 + (romBank68kSerial << 15);
@@ -5749,6 +5738,8 @@ public class GenZ80 {
 		
 		if (romBankPointer == 9) {
 //			System.out.println("Z80 RomBank: " + Integer.toHexString(romBank68kSerial));
+			updateBankPages();
+			GenEvents.bankSwitch("z80", 0, romBank68kSerial);
 		}
 	}
 
@@ -5756,24 +5747,79 @@ public class GenZ80 {
 	int readMemory(int address) {
 		if (address < 0x2000) {
 			return memory[address];
-		} else if (address >= 0x2000 && address <= 0x3FFF) {
-			return 0;
-		} else if (address == 0x4000) {		//	YM2612 A0
-//			System.out.println("YM2612 A0");
-//			return YMA0;	// TODO implement
-			return 0;
-		} else if (address == 0x4001) {		//	YM2612 D0
-//			System.out.println("YM2612 D0");
-//			return YMD0;
-			return 0;
-		} else if (address == 0x4002) {		//	YM2612 A1
-//			System.out.println("YM2612 A1");
-//			return YMA1;
+		}
+		address &= 0xFFFF;
+		if ((address & 0xFFFC) == 0x4000) {		//	el status del YM, lo unico fuera de la RAM que puede leer un loop de espera
+			return ym.readStatus();
+		}
+		accesses++;
+		int page = address >> 8;
+		int[] m = readPages[page];
+		if (m != null) {
+			return m[readOffsets[page] + (address & 0xFF)];
+		}
+		return readIO(address);
+	}
+	
+//	Loops de espera de los drivers de sonido: un salto corto para atras (JR, DJNZ, JP) cuyo cuerpo
+//	solo lee la RAM del Z80 o el status del YM. Si una vuelta termina con los mismos registros que la
+//	anterior y sin otros accesos (escrituras, ventana del 68k, I/O), las siguientes van a ser iguales
+//	hasta que algo de afuera cambie: una interrupcion, un bus request o reset, una escritura del 68k
+//	en la RAM del Z80, o el status del YM. Genefusto.runZ80Until adelanta el reloj hasta eso.
+//	En DJNZ B cambia en cada vuelta: si el loop es solo el DJNZ (DJNZ $, una espera) B no se compara
+//	y se saltean vueltas enteras. Con cuerpo se compara como todo, porque el cuerpo puede leer B
+//	(y entonces nunca es una espera).
+	static final int IDLE_LOOP_BYTES = 0x20;
+	
+	int accesses;			//	escrituras y lecturas fuera de la RAM y del status del YM
+	int loopPC = -1;		//	vuelta anterior, -1 si no hay
+	int loopAccesses;
+	long loopClock;
+	int loopAF, loopBC, loopDE, loopHL, loopIX, loopIY, loopSP;
+	
+	//	despues de ejecutar opcode desde from: si cerro una vuelta igual a la anterior devuelve lo que
+	//	dura la vuelta en ciclos del master clock, si no 0 (y guarda esta vuelta para la proxima)
+	long idleLoop(int opcode, int from, long clock) {
+		if (PC > from || (from - PC) > IDLE_LOOP_BYTES || !isLoopJump(opcode)) {
 			return 0;
-		} else if (address == 0x4003) {		//	YM2612 D1
-//			System.out.println("YM2612 D1");
-//			return YMD1;
+		}
+		int bc = isDelay(opcode, from) ? C : BC();
+		if (PC == loopPC && accesses == loopAccesses && AF() == loopAF && bc == loopBC && DE() == loopDE
+				&& HL() == loopHL && IX == loopIX && IY == loopIY && SP == loopSP) {
+			long period = clock - loopClock;
+			loopClock = clock;
+			return period;
+		}
+		loopPC = PC;
+		loopAccesses = accesses;
+		loopClock = clock;
+		loopAF = AF();
+		loopBC = bc;
+		loopDE = DE();
+		loopHL = HL();
+		loopIX = IX;
+		loopIY = IY;
+		loopSP = SP;
+		return 0;
+	}
+	
+	//	DJNZ $: nada mas que la cuenta de B
+	boolean isDelay(int opcode, int from) {
+		return opcode == 0x10 && PC == from;
+	}
+	
+	private static boolean isLoopJump(int opcode) {
+		return opcode == 0x10 || opcode == 0x18 || (opcode & 0xE7) == 0x20		//	DJNZ, JR, JR cc
+				|| opcode == 0xC3 || (opcode & 0xC7) == 0xC2;					//	JP, JP cc
+	}
+	
+	private int readIO(int address) {
+		if (address < 0x2000) {
+			return memory[address];
+		} else if (address >= 0x2000 && address <= 0x3FFF) {
 			return 0;
+		} else if (address >= 0x4000 && address <= 0x4003) {		//	YM2612, cualquier puerto devuelve el status
+			return ym.readStatus();
 		} else if (address == 0x6000) {		//	BankSwitching
 			System.out.println("Read bank mapping ?");
 			return 0xFF;	// confirmar que devuelve
@@ -5967,12 +6013,7 @@ public class GenZ80 {
 	}
 	
 	void calculateParity(int reg) {
-		int parity = Integer.bitCount(reg);
-		if ((parity % 2) == 0) {
-			setParityFlag();
-		} else {
-			clearParityFlag();
-		}
+		F = (F & ~FLAG_PV) | (flagsSZP[reg & 0xFF] & FLAG_PV);
 	}
 
     void printStack() {
@@ -6000,6 +6041,27 @@ public class GenZ80 {
 	public void disableReset() {
 		reset = false;
 	}
+	
+	//	INT del VDP al empezar el vblank, lo acepta Genefusto.runZ80Until si estan habilitadas.
+	//	En modo 0 y 1 termina en RST 38h (en el Mega Drive el bus de datos lee 0xFF), en modo 2 usa el
+	//	vector de I
+	int interrupt() {
+		halted = false;
+		enableInterrupts = false;
+		
+		SP = (SP - 1) & 0xFFFF;
+		writeMemory(SP, PC >> 8);
+		SP = (SP - 1) & 0xFFFF;
+		writeMemory(SP, PC & 0xFF);
+		
+		if (interruptMode == 2) {
+			int vector = (I << 8) | 0xFF;
+			PC = readMemory(vector) | (readMemory((vector + 1) & 0xFFFF) << 8);
+			return 19;
+		}
+		PC = 0x38;
+		return 13;
+	}
 
 	public void writeByte(int addr, long data) {
 		writeMemory(addr, (int) data);
@@ -6014,6 +6076,12 @@ public class GenZ80 {
 
 	public void initialize() {
 		PC = 0;
+		updateBankPages();
+		
+		halted = false;
+		enableInterrupts = false;
+		enableInterruptsNextInstr = false;
+		loopPC = -1;
 		
 		AF(0xFFFF);
 		AF2(0xFFFF);
@@ -1,21 +1,19 @@
 package gen;
 
-import java.awt.Graphics;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferInt;
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
-import javax.swing.ImageIcon;
 import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
-import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
@@ -122,8 +120,19 @@ public class Genefusto {
     GenZ80 z80;
     Gen68 cpu;
     GenJoypad joypad;
+    GenYm2612 ym;
+    GenPsg psg = new GenPsg();		//	solo los registros (para el VGM), el sonido lo genera GenSound
+    GenSound sound;
+    GenAudioOutput audio;
+    File wavFile;					//	sin ventana el audio va a este WAV, null sin audio
+    GenVgmLogger vgm;
+    volatile File vgmFile;			//	lo cambia el menu, se aplica en la emulacion al final del frame
     
-    private static int[] pixels;
+    GenStats stats = new GenStats(this);
+    
+    GenScreen screen;
+    Consumer<GenVdp> frameListener;	//	para correr sin ventana (GenRegression)
+    long region = 0xA0;				//	sin ventana no hay menu de region
 
     int debugMemoryChangedAddress;
     int debugMemoryChangedData;
@@ -132,7 +141,7 @@ public class Genefusto {
 
     int CLOCKSPEED = 4194304;
     
-    final JFrame jframe = new JFrame("GeNEFUSTO");
+    JFrame jframe;
     private Thread currentGameThread;
     private MyRunnable currentRunna;
     private boolean isRomOpened;
@@ -141,9 +150,10 @@ public class Genefusto {
     JCheckBoxMenuItem eurBios;
     JCheckBoxMenuItem japBios;
     
-    StringBuilder lineLog = new StringBuilder(300);
+    boolean renderThread = false;	//	se aplica al cargar la ROM
+    boolean parallelRender = false;	//	solo con el render thread
     
-    static BufferedImage img = new BufferedImage(320, 256, BufferedImage.TYPE_INT_RGB);
+    StringBuilder lineLog = new StringBuilder(300);
     
     public static void main(String[] args) throws Exception {
         // Create the frame on the event dispatching thread
@@ -159,9 +169,11 @@ public class Genefusto {
         this(false);
     }
     
-    final JLabel label = new JLabel(new ImageIcon(img));
-
     Genefusto(boolean debug) {
+    	this(debug, false);
+    }
+    
+    Genefusto(boolean debug, boolean headless) {
     	bus = new GenBus(this, null, null, null, null, null);
         
     	memory = new GenMemory();
@@ -169,12 +181,16 @@ public class Genefusto {
         z80 = new GenZ80(bus);
         cpu = new Gen68(bus);
         joypad = new GenJoypad();
+        ym = new GenYm2612();
         
         bus.memory = memory;
         bus.vdp = vdp;
         bus.z80 = z80;
         bus.joypad = joypad;
         bus.cpu = cpu;
+        z80.ym = ym;
+        bus.stats = stats;
+        vdp.stats = stats;
 
         new ABCD(cpu).generate();
         new ADD(cpu).generate();
@@ -269,16 +285,19 @@ public class Genefusto {
 			new ImmediateData(cpu),	//	solo si es un source operand TODO, si es writting es StatusRegisterOperand
 		};
 		
+		if (headless) {
+			return;
+		}
+		
+		stats.register();
+		
     	try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (Exception e) { }
         
-        pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        jframe = new JFrame("GeNEFUSTO");
+        screen = new GenScreen();
         
-        Graphics g = img.getGraphics();
-        g.drawImage(img, 0, 0, img.getWidth(), img.getHeight(), null);
-        g.dispose();
-
         JMenuBar bar = new JMenuBar();
     
         JMenu menu = new JMenu("File");
@@ -297,8 +316,8 @@ public class Genefusto {
     	japBios = new JCheckBoxMenuItem("Japan", false);
     	menuBios.add(japBios);
         
-//        JMenu viewMenu = new JMenu("View");
-//        bar.add(viewMenu);
+        JMenu viewMenu = new JMenu("View");
+        bar.add(viewMenu);
         JMenu helpMenu = new JMenu("Nefusto");
         bar.add(helpMenu);
         
@@ -331,11 +350,33 @@ public class Genefusto {
             }
         });
         
-//        for (int i = 1; i <= 4; i++) {
-//        	JMenuItem zoomItem = new JMenuItem("x" + i);
-//        	zoomItem.addActionListener(new ScreenListener(i));
-//        	viewMenu.add(zoomItem);
-//		}
+        for (int i = 1; i <= 4; i++) {
+        	JMenuItem zoomItem = new JMenuItem("x" + i);
+        	zoomItem.addActionListener(new ScreenListener(i));
+        	viewMenu.add(zoomItem);
+		}
+        
+        JCheckBoxMenuItem vsyncItem = new JCheckBoxMenuItem("Vsync", false);
+        vsyncItem.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				screen.setVsync(e.getStateChange() == ItemEvent.SELECTED);
+			}
+        });
+        viewMenu.add(vsyncItem);
+        
+        JMenuItem frameStatsItem = new JMenuItem("Frame stats");
+        frameStatsItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+            	GenTripleBuffer frames = screen.frames;
+                JOptionPane.showMessageDialog(null, "Frames: " + frames.getPublishedFrames()
+                	+ "\nDropped: " + frames.getDroppedFrames()
+                	+ "\nDuplicated: " + frames.getDuplicatedFrames());
+            }
+        });
+        viewMenu.add(frameStatsItem);
+        viewMenu.addSeparator();
         
         JCheckBoxMenuItem biosItem = new JCheckBoxMenuItem("Use BIOS", true);
         biosItem.addItemListener(new ItemListener() {
@@ -350,6 +391,42 @@ public class Genefusto {
         });
 //        viewMenu.add(biosItem);
         
+        JCheckBoxMenuItem renderThreadItem = new JCheckBoxMenuItem("Render thread", renderThread);
+        renderThreadItem.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				renderThread = e.getStateChange() == ItemEvent.SELECTED;
+			}
+        });
+        viewMenu.add(renderThreadItem);
+        
+        JCheckBoxMenuItem parallelRenderItem = new JCheckBoxMenuItem("Parallel render", parallelRender);
+        parallelRenderItem.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				parallelRender = e.getStateChange() == ItemEvent.SELECTED;
+			}
+        });
+        viewMenu.add(parallelRenderItem);
+        
+        JCheckBoxMenuItem vgmItem = new JCheckBoxMenuItem("Record VGM", false);
+        vgmItem.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				if (e.getStateChange() != ItemEvent.SELECTED) {
+					vgmFile = null;
+					return;
+				}
+				JFileChooser chooser = new JFileChooser(basePath);
+				chooser.setSelectedFile(new File("genefusto.vgm"));
+				if (chooser.showSaveDialog(jframe) == JFileChooser.APPROVE_OPTION) {
+					vgmFile = chooser.getSelectedFile();
+				} else {
+					vgmItem.setSelected(false);
+				}
+			}
+        });
+        
         JMenuItem aboutItem = new JMenuItem("About");
         aboutItem.addActionListener(new ActionListener() {
             @Override
@@ -362,6 +439,7 @@ public class Genefusto {
         menu.add(closeRomItem);
         menu.add(loadItem);
         menu.add(saveItem);
+        menu.add(vgmItem);
         
         helpMenu.add(aboutItem);
         
@@ -381,7 +459,7 @@ public class Genefusto {
         jframe.setLocation(400, 400);
         jframe.setResizable(false);
         jframe.setJMenuBar(bar);
-        jframe.add(label);
+        jframe.add(screen);
         jframe.pack();
         jframe.setVisible(true);
     }
@@ -423,22 +501,7 @@ public class Genefusto {
         }
 
 		private void adjustScreen() {
-			int multi = multiplier;
-			currentMultiplier = multi;
-			
-			jframe.setSize(160 * multi, 144 * multi);
-            img = new BufferedImage(160 * multi, 144 * multi, BufferedImage.TYPE_INT_RGB);
-            pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
-            
-            Graphics g = img.getGraphics();
-            g.drawImage(img, 0, 0, img.getWidth(), img.getHeight(), null);
-            g.dispose();
-
-            jframe.remove(label);
-            final JLabel newLabel = new JLabel(new ImageIcon(img));
-            jframe.add(newLabel);
-            
-            jframe.pack();
+			screen.setScale(multiplier);	//	la ventana se ajusta sola (pack) con la nueva escala
 		}
     }
     
@@ -486,95 +549,343 @@ public class Genefusto {
 
         @Override
         public void run() {
-            if (file.getName().toLowerCase().endsWith(".zip")) {
-//                memory.cartridgeMemory = GBFileLoader.readZipFile(file);
-            } else if (file.getName().toLowerCase().endsWith(".md")
-            		|| file.getName().toLowerCase().endsWith(".bin")) {
-                memory.cartridge = FileLoader.readFile(file);
-            }
+            loadRom(file);
         
             String rom = file.getName();
             jframe.setTitle(jframe.getTitle() + " - " + rom);
             
-            cpu.reset();
-            cpu.initialize();
-            joypad.initialize();
-            vdp.init();
-            z80.initialize();
-            
-            int[] ssf2Title = new int[] {
-        		0x53, 0x55, 0x50, 0x45, 0x52, 0x20, 0x53, 0x54, 0x52, 0x45, 0x45, 0x54, 0x20, 0x46, 0x49, 0x47,
-            	0x48, 0x54, 0x45, 0x52, 0x32, 0x20, 0x54, 0x68, 0x65, 0x20, 0x4E, 0x65, 0x77, 0x20, 0x43, 0x68,
-            	0x61, 0x6C, 0x6C, 0x65, 0x6E, 0x67, 0x65, 0x72, 0x73, 0x20, 0x20, 0x20, 0x20, 0x20, 0x20, 0x20
-            };
-            
-            int[] titanOverdrive2Title = new int[] {
-                0x4F, 0x56, 0x45, 0x52, 0x44, 0x52, 0x49, 0x56, 0x45, 0x20, 0x32, 0x20, 0x20, 0x20, 0x20, 0x20,
-            };
-            
-            boolean isSsf2Mapper = true;
-            for (int i = 0; i < ssf2Title.length; i++) {
-            	if (memory.cartridge[0x150 + i] != ssf2Title[i]) {
-            		isSsf2Mapper = false;
-            	}
-			}
-            
-            if (!isSsf2Mapper) {
-            	isSsf2Mapper = true;
-            	for (int i = 0; i < titanOverdrive2Title.length; i++) {
-            		if (memory.cartridge[0x150 + i] != titanOverdrive2Title[i]) {
-            			isSsf2Mapper = false;
-            		}
-            	}
-            }
-            
-            bus.ssf2Mapper = isSsf2Mapper;
-            if (isSsf2Mapper) {
-            	System.out.println("SSF2 Mapper!");
-            }
-            
             loop();
         }
     }
     
+    void loadRom(File file) {
+        if (file.getName().toLowerCase().endsWith(".zip")) {
+//                memory.cartridgeMemory = GBFileLoader.readZipFile(file);
+        } else if (file.getName().toLowerCase().endsWith(".md")
+        		|| file.getName().toLowerCase().endsWith(".bin")) {
+            memory.cartridge = FileLoader.readFile(file);
+        }
+        loadRom(memory.cartridge);
+    }
+    
+    void loadRom(int[] cartridge) {
+        memory.cartridge = cartridge;
+        
+        cpu.reset();
+        cpu.initialize();
+        joypad.initialize();
+        vdp.init();
+        vdp.setRenderThread(renderThread);
+        vdp.setParallelRender(parallelRender ? Math.min(Runtime.getRuntime().availableProcessors(), 8) : 0);
+        z80.initialize();
+        ym.reset();
+        psg.reset();
+        stopSound();
+        sound = new GenSound(new GenSoundQueue(1 << 16));
+        if (screen != null) {
+        	audio = GenAudioOutput.openLine();
+        } else if (wavFile != null) {
+        	audio = GenAudioOutput.openWav(wavFile);
+        }
+        sound.output = audio;
+        if (audio != null) {		//	sin ventana ni WAV no hay a donde mandar el audio, no hace falta el thread
+        	sound.start();
+        }
+        soundFrames = 0;
+        lineClock = 0;
+        lineClockRemainder = 0;
+        z80Clock = 0;
+        z80Int = false;
+        z80Idle = false;
+        
+        int[] ssf2Title = new int[] {
+    		0x53, 0x55, 0x50, 0x45, 0x52, 0x20, 0x53, 0x54, 0x52, 0x45, 0x45, 0x54, 0x20, 0x46, 0x49, 0x47,
+        	0x48, 0x54, 0x45, 0x52, 0x32, 0x20, 0x54, 0x68, 0x65, 0x20, 0x4E, 0x65, 0x77, 0x20, 0x43, 0x68,
+        	0x61, 0x6C, 0x6C, 0x65, 0x6E, 0x67, 0x65, 0x72, 0x73, 0x20, 0x20, 0x20, 0x20, 0x20, 0x20, 0x20
+        };
+        
+        int[] titanOverdrive2Title = new int[] {
+            0x4F, 0x56, 0x45, 0x52, 0x44, 0x52, 0x49, 0x56, 0x45, 0x20, 0x32, 0x20, 0x20, 0x20, 0x20, 0x20,
+        };
+        
+        boolean isSsf2Mapper = true;
+        for (int i = 0; i < ssf2Title.length; i++) {
+        	if (memory.cartridge[0x150 + i] != ssf2Title[i]) {
+        		isSsf2Mapper = false;
+        	}
+			}
+        
+        if (!isSsf2Mapper) {
+        	isSsf2Mapper = true;
+        	for (int i = 0; i < titanOverdrive2Title.length; i++) {
+        		if (memory.cartridge[0x150 + i] != titanOverdrive2Title[i]) {
+        			isSsf2Mapper = false;
+        		}
+        	}
+        }
+        
+        bus.ssf2Mapper = isSsf2Mapper;
+        if (isSsf2Mapper) {
+        	System.out.println("SSF2 Mapper!");
+        }
+    }
+    
     void loop() {
         try {
             for(;;) {
-            	if (runZ80) {	//	TODO hacer que use la velocidad correcta y sea un thread distinto
-            		int opcode = z80.readMemory(z80.PC);
-    				z80.PC = (z80.PC + 1) & 0xFFFF;
-            		z80.executeInstruction(opcode);
-            	}
-            	if (!cpu.stop) {
-            		cpu.runInstruction();
-            	}
-            	bus.checkInterrupts();
-            	vdp.run(13);
-            	vdp.dmaFill();
-            	vdp.dmaFill();
+            	step();
             }
         } catch (RuntimeException e) {
             throw e;
         }
     }
+    
+    void step() {
+    	boolean sample = (++stats.steps & GenStats.SAMPLE_MASK) == 0;
+    	long start = sample ? System.nanoTime() : 0;
+    	
+    	sampling = sample;
+    	z80Nanos = 0;
+    	long cpuStart = start;
+    	
+    	if (!vdp.isCpuStalled()) {
+    		if (!cpu.stop) {
+    			cpu.runInstruction();
+    			stats.instructions68k++;
+    		}
+    		bus.checkInterrupts();
+    	}
+    	long vdpStart = sample ? System.nanoTime() : 0;
+    	long z80BeforeVdp = z80Nanos;
+    	
+    	vdp.run(13);
+    	
+    	if (sample) {
+    		long end = System.nanoTime();
+    		stats.sample(z80Nanos, (vdpStart - cpuStart) - z80BeforeVdp, (end - vdpStart) - (z80Nanos - z80BeforeVdp));
+    	}
+    }
+    
+    //	corre hasta que el VDP termina el proximo frame (entra al vblank)
+    void runFrame() {
+    	long target = vdp.frameCount + 1;
+    	while (vdp.frameCount < target) {
+    		step();
+    	}
+    }
 
-	private int currentMultiplier = 1;
 	public boolean runZ80 = false;
 	
-	void renderScreen() {
-	    int m = currentMultiplier;
-	    
-	    for (int i = 0; i < 256; i++) {
-	        for (int j = 0; j < 320; j++) {
-	            int color = vdp.screenData[j][i];
-	            
-	            int pos = ((i * m) * (320 * m)) + (j * m);
+	//	El Z80 corre con su propio reloj (master / 15) y atrasado: no en cada paso del 68k sino de a
+	//	slices hasta el fin de cada linea, o antes cuando el 68k lo toca (su espacio en A00000, bus
+	//	request, reset), que es cuando tiene que estar al dia. Parado (bus request o reset) el reloj
+	//	avanza igual sin ejecutar. El INT del vblank queda puesto durante la linea 0xE0.
+	static final int Z80_DIVIDER = 15;
 	
-	            pixels[pos] = color;
-	        }
-	    }
-	    
-	    jframe.repaint();
+	long z80Clock;				//	master clock hasta donde llego el Z80
+	boolean z80Int;
+	boolean inZ80;
+	boolean sampling;
+	long z80Nanos;				//	tiempo del Z80 en el paso medido
+	
+	boolean z80Idle;			//	en un loop de espera (GenZ80.idleLoop), no ejecuta hasta que algo cambie
+	int z80IdleStatus;			//	status del YM cuando entro
+	
+	void syncZ80() {
+		if (!inZ80) {
+			runZ80Until(soundClock());
+		}
+	}
+	
+	//	algo de afuera puede haber cambiado lo que lee el loop de espera: vuelve a ejecutar, y hacen
+	//	falta dos vueltas nuevas iguales para volver a considerarlo en espera
+	void wakeZ80() {
+		z80Idle = false;
+		z80.loopPC = -1;
+	}
+	
+	void runZ80Until(long target) {
+		if (!runZ80) {
+			z80Clock = Math.max(z80Clock, target);
+			return;
+		}
+		long start = sampling ? System.nanoTime() : 0;
+		inZ80 = true;
+		while (z80Clock < target) {
+			if (z80Int && z80.enableInterrupts) {	//	una vez aceptada no se repite en el mismo vblank
+				z80Int = false;
+				wakeZ80();
+				z80Clock += z80.interrupt() * Z80_DIVIDER;
+				continue;
+			}
+			if (z80Idle && ym.readStatus() != z80IdleStatus) {
+				wakeZ80();
+			}
+			if (z80.halted || z80Idle) {		//	hasta la proxima interrupcion (o lo que lo despierte) no hace nada
+				stats.cyclesZ80Idle += (target - z80Clock) / Z80_DIVIDER;
+				z80Clock = target;
+				break;
+			}
+			boolean enableAfter = z80.enableInterruptsNextInstr;	//	EI habilita despues de la instruccion siguiente
+			
+			z80.cycleLimit = (int) Math.min((target - z80Clock) / Z80_DIVIDER, 0x10000);
+			int pc = z80.PC;
+			int opcode = z80.readMemory(pc);
+			z80.PC = (pc + 1) & 0xFFFF;
+			int cycles = z80.executeInstruction(opcode);
+			z80Clock += Math.max(cycles, 4) * Z80_DIVIDER;
+			stats.instructionsZ80++;
+			
+			if (enableAfter && z80.enableInterruptsNextInstr) {	//	si no fue DI
+				z80.enableInterrupts = true;
+				z80.enableInterruptsNextInstr = false;
+			}
+			
+			long period = z80.idleLoop(opcode, pc, z80Clock);
+			if (period > 0) {
+				if (z80.isDelay(opcode, pc)) {		//	DJNZ $: vueltas enteras que entran, la ultima se ejecuta
+					long loops = Math.min(z80.B - 1, (target - z80Clock) / period);
+					z80.B -= loops;
+					z80Clock += loops * period;
+					z80.loopClock = z80Clock;
+					stats.cyclesZ80Idle += (loops * period) / Z80_DIVIDER;
+				} else {
+					z80Idle = true;
+					z80IdleStatus = ym.readStatus();
+				}
+			}
+		}
+		inZ80 = false;
+		if (sampling) {
+			z80Nanos += System.nanoTime() - start;
+		}
+	}
+	
+	//	el VDP hace 256 lineas por frame a 60 frames por segundo. Aca solo corren los timers del YM2612
+	//	(~3.5 muestras por linea), el sonido se genera en el thread de audio (ver GenSound)
+	static final int LINES_PER_SECOND = 256 * 60;
+	static final int MASTER_PER_LINE = GenSound.MASTER_CLOCK / LINES_PER_SECOND;
+	
+	int fmRemainder;
+	
+	long lineClock;				//	master clock al empezar la linea
+	int lineClockRemainder;
+	
+	//	con salida a la placa de sonido la emulacion no se adelanta mas de estos frames al audio
+	static final int MAX_FRAMES_AHEAD = 3;
+	long soundFrames;			//	SYNC que entraron en la cola (uno descartado no lo va a contar el audio)
+	
+	void endLine() {
+		fmRemainder += GenYm2612.RATE;
+		int samples = fmRemainder / LINES_PER_SECOND;
+		fmRemainder -= samples * LINES_PER_SECOND;
+		
+		lineClockRemainder += GenSound.MASTER_CLOCK;
+		lineClock += lineClockRemainder / LINES_PER_SECOND;
+		lineClockRemainder %= LINES_PER_SECOND;
+		
+		runZ80Until(lineClock);
+		z80Int = vdp.line == 0xE0;
+		
+		//	los timers avanzan despues del Z80: durante la linea ve el estado del principio, no el
+		//	overflow que todavia no paso
+		ym.runTimers(samples);
+		
+		if (vdp.line > 0xFF) {
+			if ((vgm != null) != (vgmFile != null)) {
+				updateVgm();
+			}
+			if (sound.queue.offer(lineClock, GenSoundQueue.pack(GenSoundQueue.SYNC, 0, 0))) {
+				soundFrames++;
+			}
+			if (audio != null) {
+				sound.wakeUp();
+			} else {
+				sound.drop();
+			}
+			
+			//	el ritmo lo da line.write en el thread de audio, aca solo se espera sin bloquear nada
+			if (audio != null && audio.line != null) {
+				while (soundFrames - sound.frames > MAX_FRAMES_AHEAD && sound.isRunning()) {
+					LockSupport.parkNanos(500_000);
+				}
+			}
+		}
+	}
+	
+	//	termina el audio de la ROM anterior, el WAV y el VGM quedan completos
+	void stopSound() {
+		vgmFile = null;
+		updateVgm();
+		if (sound != null) {
+			sound.stop();
+			sound = null;
+		}
+		if (audio != null) {
+			audio.close();
+			audio = null;
+		}
+	}
+	
+	//	momento emulado en ciclos del master clock, con la posicion dentro de la linea (982 ciclos
+	//	del VDP por linea, ver GenVdp.run)
+	long soundClock() {
+		if (inZ80) {
+			return z80Clock;
+		}
+		return lineClock + ((vdp.totalCycles * MASTER_PER_LINE) / 982);
+	}
+	
+	//	escrituras a los puertos del YM2612 (0x4000-0x4003 del Z80, A04000 del 68k): los timers se
+	//	quedan en la emulacion, la sintesis va al thread de audio
+	void ymWrite(int port, int data) {
+		ym.write(port, data);
+		long clock = soundClock();
+		sound.queue.offer(clock, GenSoundQueue.pack(GenSoundQueue.YM, port, data));
+		if (vgm != null) {
+			vgm.ymWrite(clock, port, data);
+		}
+	}
+	
+	//	escrituras al puerto del PSG, desde el 68k (C00011) o el Z80 (7F11)
+	void psgWrite(int data) {
+		psg.write(data);
+		long clock = soundClock();
+		sound.queue.offer(clock, GenSoundQueue.pack(GenSoundQueue.PSG, 0, data));
+		if (vgm != null) {
+			vgm.psgWrite(clock, data);
+		}
+	}
+	
+	//	empieza o termina la grabacion del VGM segun vgmFile
+	void updateVgm() {
+		File target = vgmFile;
+		if (vgm != null && target == null) {
+			try {
+				vgm.close(soundClock());
+				System.out.println("VGM saved");
+			} catch (IOException e) {
+				System.out.println("VGM not saved: " + e);
+			}
+			vgm = null;
+		} else if (vgm == null && target != null) {
+			try {
+				vgm = new GenVgmLogger(target, soundClock(), ym, psg);
+			} catch (IOException e) {
+				System.out.println("VGM not started: " + e);
+				vgmFile = null;
+			}
+		}
+	}
+	
+	//	se llama desde el thread que termino el frame (emulacion o render thread)
+	void renderScreen(GenVdp source) {
+		if (screen != null) {
+			screen.submit(source);
+		}
+		if (frameListener != null) {
+			frameListener.accept(source);
+		}
 	}
 	
 //	PD5: Start or C
@@ -649,6 +960,9 @@ public class Genefusto {
     //	JP: ????
     //	US SEGA CD:	8181
 	public long getRegion() {
+		if (japBios == null) {
+			return region;
+		}
 		if (japBios.isSelected()) {
 			return 0;
 		} else if (eurBios.isSelected()) {